@@ -1,15 +1,35 @@
 package com.bluegosling.artificer.builders;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
 import java.lang.annotation.Annotation;
 
 /**
  * The abstract base class for annotation builders.
+ *
+ * <p>Generated builders also have {@code reset()} and {@code clear()} methods, for re-using a
+ * builder. These are declared on each generated builder, instead of here, so that builders
+ * generated by older versions of Artificer still work with this class.
  * 
  * @author Joshua Humphries (jhumphries131@gmail.com)
  *
  * @param <A> the type of annotation built
  */
 public abstract class Builder<A extends Annotation> {
+   /**
+    * The canonical instances for each type of builder. The tables are created lazily, the first
+    * time a builder of a given type builds a canonical instance. They only weakly reference their
+    * instances, so canonical instances that are no longer in use can be garbage collected.
+    */
+   private static final ClassValue<Interner<Annotation>> CANONICAL =
+         new ClassValue<Interner<Annotation>>() {
+            @Override
+            protected Interner<Annotation> computeValue(Class<?> type) {
+               return Interners.newWeakInterner();
+            }
+         };
+
    /**
     * Builds an instance of an annotation using the values provided. Any fields that have no
     * default value must be provided before calling this method.
@@ -18,4 +38,22 @@ public abstract class Builder<A extends Annotation> {
     * @throws IllegalStateException if any fields have no default value and have not been provided
     */
    public abstract A build();
+
+   /**
+    * Builds a canonical instance of an annotation using the values provided. Equal annotations
+    * built this way are the same instance, so they share storage and can be compared using
+    * {@code ==}. This is useful when many equal annotations are built and retained, since the
+    * duplicates are discarded. This is safe to use concurrently from multiple threads.
+    *
+    * @return the canonical annotation instance that is equal to the one built using the values
+    *       provided
+    * @throws IllegalStateException if any fields have no default value and have not been provided
+    * @see #build()
+    */
+   public A buildCanonical() {
+      // the table for this builder's class only ever contains annotations that it builds
+      @SuppressWarnings("unchecked")
+      A canonical = (A) CANONICAL.get(getClass()).intern(build());
+      return canonical;
+   }
 }
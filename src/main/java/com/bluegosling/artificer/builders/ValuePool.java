@@ -0,0 +1,265 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * A pool of canonical values for the members of built annotations. Annotations share values that
+ * are equal, instead of each holding its own copy. Arrays are pooled by content, so two arrays
+ * with equal elements (and the same component type) are pooled as a single instance.
+ *
+ * <p>Generated builders use this pool when they are generated with the
+ * {@code artificer.valuePool} processor option enabled. Since the annotation's accessors return
+ * copies of arrays, sharing them is safe. But arrays passed to or returned from this pool must
+ * never be modified.
+ *
+ * <p>The pool only weakly references its values, so values that are no longer used can be garbage
+ * collected. This class is safe to use concurrently from multiple threads.
+ *
+ * @author Joshua Humphries (jhumphries131@gmail.com)
+ */
+public final class ValuePool {
+   private static final Segment[] SEGMENTS = new Segment[16];
+   private static final ReferenceQueue<Object> CLEARED = new ReferenceQueue<>();
+
+   static {
+      for (int i = 0; i < SEGMENTS.length; i++) {
+         SEGMENTS[i] = new Segment();
+      }
+   }
+
+   private ValuePool() {
+   }
+
+   /**
+    * Returns the canonical string that is equal to the given one.
+    *
+    * @param value a string
+    * @return the canonical string that is equal to the given one
+    */
+   public static String intern(String value) {
+      return (String) internValue(value);
+   }
+
+   /**
+    * Returns the canonical array that has the same type and contents as the given one. The
+    * elements are compared using their {@code equals} methods.
+    *
+    * @param array an array
+    * @return the canonical array with the same type and contents as the given one
+    */
+   @SuppressWarnings("unchecked") // the canonical array is the same type as the given one
+   public static <T> T[] intern(T[] array) {
+      return (T[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static boolean[] intern(boolean[] array) {
+      return (boolean[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static byte[] intern(byte[] array) {
+      return (byte[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static char[] intern(char[] array) {
+      return (char[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static short[] intern(short[] array) {
+      return (short[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static int[] intern(int[] array) {
+      return (int[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static long[] intern(long[] array) {
+      return (long[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one. Elements are
+    * compared like {@link Float#equals(Object)}.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static float[] intern(float[] array) {
+      return (float[]) internValue(array);
+   }
+
+   /**
+    * Returns the canonical array that has the same contents as the given one. Elements are
+    * compared like {@link Double#equals(Object)}.
+    *
+    * @param array an array
+    * @return the canonical array with the same contents as the given one
+    */
+   public static double[] intern(double[] array) {
+      return (double[]) internValue(array);
+   }
+
+   private static Object internValue(Object value) {
+      expungeCleared();
+      int hash = hash(value);
+      return SEGMENTS[(hash >>> 24) & (SEGMENTS.length - 1)].intern(value, hash);
+   }
+
+   private static void expungeCleared() {
+      Object cleared;
+      while ((cleared = CLEARED.poll()) != null) {
+         Entry entry = (Entry) cleared;
+         SEGMENTS[(entry.hash >>> 24) & (SEGMENTS.length - 1)].remove(entry);
+      }
+   }
+
+   private static int hash(Object value) {
+      int hash;
+      if (value instanceof Object[]) {
+         hash = Arrays.hashCode((Object[]) value);
+      } else if (value instanceof boolean[]) {
+         hash = Arrays.hashCode((boolean[]) value);
+      } else if (value instanceof byte[]) {
+         hash = Arrays.hashCode((byte[]) value);
+      } else if (value instanceof char[]) {
+         hash = Arrays.hashCode((char[]) value);
+      } else if (value instanceof short[]) {
+         hash = Arrays.hashCode((short[]) value);
+      } else if (value instanceof int[]) {
+         hash = Arrays.hashCode((int[]) value);
+      } else if (value instanceof long[]) {
+         hash = Arrays.hashCode((long[]) value);
+      } else if (value instanceof float[]) {
+         hash = Arrays.hashCode((float[]) value);
+      } else if (value instanceof double[]) {
+         hash = Arrays.hashCode((double[]) value);
+      } else {
+         hash = value.hashCode();
+      }
+      hash = 31 * value.getClass().hashCode() + hash;
+      // spread the high bits, which pick the segment, into the low bits, which pick the bucket
+      return hash ^ (hash >>> 16);
+   }
+
+   /**
+    * A portion of the pool, which is a hash table guarded by its own lock. Entries are compared
+    * with values directly (using their pre-computed hash codes), so finding a value that is already
+    * pooled does not allocate anything.
+    */
+   private static final class Segment {
+      private Entry[] table = new Entry[16];
+      private int size;
+
+      synchronized Object intern(Object value, int hash) {
+         int index = hash & (table.length - 1);
+         Entry prev = null;
+         for (Entry e = table[index]; e != null; e = e.next) {
+            Object canonical = e.get();
+            if (canonical == null) {
+               // collected but not yet expunged, so remove it now
+               unlink(index, prev, e);
+               continue;
+            }
+            if (e.hash == hash && canonical.getClass() == value.getClass()
+                  && Objects.deepEquals(canonical, value)) {
+               return canonical;
+            }
+            prev = e;
+         }
+         table[index] = new Entry(value, hash, table[index]);
+         if (++size > table.length - (table.length >>> 2)) {
+            resize();
+         }
+         return value;
+      }
+
+      synchronized void remove(Entry entry) {
+         int index = entry.hash & (table.length - 1);
+         Entry prev = null;
+         for (Entry e = table[index]; e != null; e = e.next) {
+            if (e == entry) {
+               unlink(index, prev, e);
+               return;
+            }
+            prev = e;
+         }
+      }
+
+      private void unlink(int index, Entry prev, Entry e) {
+         if (prev == null) {
+            table[index] = e.next;
+         } else {
+            prev.next = e.next;
+         }
+         size--;
+      }
+
+      private void resize() {
+         Entry[] newTable = new Entry[table.length * 2];
+         for (Entry e : table) {
+            while (e != null) {
+               Entry next = e.next;
+               int index = e.hash & (newTable.length - 1);
+               e.next = newTable[index];
+               newTable[index] = e;
+               e = next;
+            }
+         }
+         table = newTable;
+      }
+   }
+
+   /**
+    * An entry in the pool, which weakly references a value. Entries are chained in their segment's
+    * hash table, and an entry whose value has been collected is removed from it.
+    */
+   private static final class Entry extends WeakReference<Object> {
+      final int hash;
+      // guarded by the lock of the segment that holds the entry
+      Entry next;
+
+      Entry(Object value, int hash, Entry next) {
+         super(value, CLEARED);
+         this.hash = hash;
+         this.next = next;
+      }
+   }
+}
@@ -19,21 +19,26 @@
  * The presence of {@link com.bluegosling.artificer.builders.HasBuilder} will cause a builder to be
  * generated like the following:
  * <pre>
- * class Foo$Builder {
+ * class Foo$Builder extends Builder&lt;Foo&gt; {
+ *    private static final OtherAnnotation[] __DEFAULT_details =
+ *          new OtherAnnotation[] { new OtherAnnotation$Builder().value("baz").build() };
+ *
  *    private String value;
  *    private boolean flag;
- *    private List&lt;OtherAnnotation&gt; details;
+ *    private OtherAnnotation[] details;
+ *    private int __detailsSize;
  *
  *    public Foo$Builder() {
  *       this.flag = false;
- *       this.details =
- *             new ArrayList&lt;&gt;(Arrays.asList(new OtherAnnotation$Builder().value("baz").build()));
+ *       this.details = __DEFAULT_details;
+ *       this.__detailsSize = this.details.length;
  *    }
  * 
  *    public Foo$Builder(Foo a) {
  *       this.value = a.value();
  *       this.flag = a.flag();
- *       this.details = new ArrayList&lt;&gt;(Arrays.asList(a.details()));
+ *       this.details = a.details();
+ *       this.__detailsSize = this.details.length;
  *    }
  *
  *    public Foo$Builder value(String value) {
@@ -50,12 +55,14 @@
  *    }
  * 
  *    public Foo$Builder details(OtherAnnotation... details) {
- *       this.details = new ArrayList&lt;&gt;(Arrays.asList(details));
+ *       this.details = details.clone();
+ *       this.__detailsSize = this.details.length;
  *       return this;
  *    }
  * 
- *    public Foo$Builder details(List&lt;OtherAnnotation&gt; details) {
- *       this.details = new ArrayList&lt;&gt;(details);
+ *    public Foo$Builder details(Collection&lt;? extends OtherAnnotation&gt; details) {
+ *       this.details = details.toArray(__EMPTY_details);
+ *       this.__detailsSize = this.details.length;
  *       return this;
  *    }
  * 
@@ -63,7 +70,10 @@
  *       if (details == null) {
  *          throw new NullPointerException("details");
  *       }
- *       this.details.add(details);
+ *       if (__detailsSize == this.details.length) {
+ *          this.details = Arrays.copyOf(this.details, Math.max(4, __detailsSize * 2));
+ *       }
+ *       this.details[__detailsSize++] = details;
  *       return this;
  *    }
  *
@@ -82,7 +92,7 @@
  *       Foo$Impl(Foo$Builder b) {
  *          this.value = b.value;
  *          this.flag = b.flag;
- *          this.details = b.details.toArray(new Foo.OtherAnnotation[b.details.size()]);
+ *          this.details = Arrays.copyOf(b.details, b.__detailsSize);
  *       }
  *
  *       public Class&lt;Foo&gt; annotationType() {
@@ -107,6 +117,14 @@
  *    }
  * }
  * </pre>
+ * (The generated code also validates that array elements are not null, shares a single instance
+ * when all values are defaults, and caches hash codes.)
+ *
+ * <h3>Canonical instances</h3>
+ * Every builder also has a {@link com.bluegosling.artificer.builders.Builder#buildCanonical()
+ * buildCanonical()} method. Equal annotations built this way are the same instance. This is
+ * useful for annotations that are built many times and retained, like qualifiers used as map
+ * keys.
  *
  * <h3>{@code BuilderMarker}</h3>
  * This library also allows you to create your own meta-annotations that indicate that a builder
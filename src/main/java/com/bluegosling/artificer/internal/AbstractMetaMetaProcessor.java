@@ -4,32 +4,65 @@ import com.google.auto.common.BasicAnnotationProcessor;
 import com.google.auto.common.MoreElements;
 import com.google.auto.common.SuperficialValidation;
 import com.google.common.base.Ascii;
+import com.google.common.base.CharMatcher;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Resources;
 import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
 
-import java.lang.annotation.Annotation;
-import java.text.DateFormat;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URL;
+import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import javax.annotation.Generated;
 import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Filer;
+import javax.annotation.processing.ProcessingEnvironment;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.element.Element;
 import javax.lang.model.element.ElementKind;
 import javax.lang.model.element.ExecutableElement;
 import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
 import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
 import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
 
 import static javax.tools.Diagnostic.Kind.ERROR;
 
@@ -37,22 +70,117 @@ import static javax.tools.Diagnostic.Kind.ERROR;
  * An abstract annotation processor for meta-meta-annotations.
  *
  * <p>A meta-annotation is one that annotates other annotations. A meta-meta-annotation, therefore,
- * is one that annotates other meta-annotations. This processor examines all annotations in a round
- * and finds the elements marked with the meta-meta-annotation of interest. It then finds all
- * elements marked with those meta-annotations and processes them. Concrete sub-classes are
- * responsible for this processing and for supplying the meta-meta-annotation of interest.
+ * is one that annotates other meta-annotations. This processor finds the meta-annotations (a.k.a.
+ * markers) that are marked with the meta-meta-annotations of interest and then finds all elements
+ * marked with those meta-annotations and processes them. It only claims the markers listed in the
+ * {@linkplain #MARKER_INDEX marker indexes} on the annotation processor path and class path, along
+ * with the meta-meta-annotations (so it finds markers defined in the current compilation). If the
+ * {@linkplain #OPTION_CLAIM_ALL_ANNOTATIONS claim-all-annotations} option is enabled, it instead
+ * claims all annotations and examines each one (just once per compilation) to see if it is a
+ * marker.
+ * Concrete sub-classes supply {@linkplain AnnotationGenerator generators}, each of which has a
+ * meta-meta-annotation of interest and generates code for the annotations it selects.
+ *
+ * <p>Each annotation type is discovered, validated, and analyzed just once, even when it is
+ * selected by multiple generators. All generators that apply to it then generate code from the
+ * same {@linkplain AnnotationModel model}.
  *
  * <p>Similar to {@link BasicAnnotationProcessor}, this class reduces implementation burden in
  * sub-classes by smartly handling unresolved elements. For example, if a type element appears in a
  * processing round, but one of its methods has an {@link TypeKind#ERROR} return type, this abstract
  * class intercepts that type and defers it to a subsequent processing round (in which the method's
  * return type may be resolved).
+ *
+ * <p>Processors of this kind are <em>isolating</em>, as defined by incremental build tools like
+ * Gradle: every generated file is derived solely from the single annotation type on whose behalf
+ * it is generated, and that type is recorded as the file's originating element. Whether a type is
+ * processed is decided only by examining that type's own annotations (and their meta-annotations)
+ * or by the members of a processed type that refer to it. So a change to one annotation only
+ * requires re-processing that annotation, not the entire compilation.
  */
 public abstract class AbstractMetaMetaProcessor extends AbstractProcessor {
-   private static final DateFormat ISO_8601 = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ");
+   /** The format of dates in generated sources. */
+   private static final String ISO_8601 = "yyyy-MM-dd'T'HH:mm:ssZ";
 
    private static final Splitter ON_COMMA = Splitter.on(',');
 
+   private static final Splitter ON_WHITESPACE =
+         Splitter.on(CharMatcher.WHITESPACE).omitEmptyStrings();
+
+   /**
+    * The path of the marker index resource. Each line in the index names a meta-meta-annotation and
+    * then, separated by whitespace, a marker annotation that it annotates. Lines that start with
+    * '#' are comments. Indexes are generated by the {@link MarkerIndexProcessor} and read from the
+    * annotation processor path and the class path to decide which annotations to claim.
+    */
+   static final String MARKER_INDEX = "META-INF/artificer/markers";
+
+   /** The directory of the marker index, as a package name, for listing it on the class path. */
+   private static final String MARKER_INDEX_PACKAGE = "META-INF.artificer";
+
+   /**
+    * The processor option that claims all annotations. When {@code true}, the processor examines
+    * every annotation in the compilation to find markers, instead of claiming only its
+    * meta-meta-annotations and the markers listed in {@linkplain #MARKER_INDEX marker indexes}.
+    * This is a fallback for custom markers from libraries that were not compiled with an index or
+    * whose index can't be read. (All indexes on the annotation processor path can be read. All
+    * indexes on the class path can be read with javac if its internal API is accessible, which
+    * requires opening the {@code jdk.compiler} module on Java 9 and newer. Otherwise, only the
+    * first index on the class path can be read.)
+    */
+   static final String OPTION_CLAIM_ALL_ANNOTATIONS = "artificer.claimAllAnnotations";
+
+   /**
+    * The processor option that enables deterministic output. When {@code true}, generated sources
+    * do not include a timestamp, so they are byte-for-byte identical for identical inputs. Each
+    * such file also records a hash of its content, which allows the processor to skip re-writing
+    * files whose content has not changed.
+    */
+   static final String OPTION_DETERMINISTIC = "artificer.deterministic";
+
+   /**
+    * The processor option that enables a persistent cache of generated sources. Its value is the
+    * path of the cache directory. When an annotation's structure matches that of a previously
+    * processed annotation, the source is read from the cache instead of being generated. The same
+    * directory can be shared by many compilations.
+    */
+   static final String OPTION_CACHE_DIR = "artificer.cacheDir";
+
+   /**
+    * The processor option that controls how many threads are used to generate code. Code for
+    * multiple annotations in the same round is generated concurrently. If unspecified, the number
+    * of available processors is used. A value of 1 generates all code on the compiler's thread.
+    */
+   static final String OPTION_PARALLELISM = "artificer.parallelism";
+
+   /**
+    * The processor option that enables a performance report. Its value is the path of a file to
+    * which the report is written, in JSON format, when processing is over. The report includes the
+    * wall time of each round, counts of types processed in each round, and the time spent on each
+    * annotation type and generated class.
+    */
+   static final String OPTION_STATS = "artificer.stats";
+
+   /**
+    * The processor option that enables zero-copy access to array members of built annotations.
+    * When {@code true}, each generated builder also has static methods for each array member that
+    * query the length of an annotation's array, get one of its elements, or view it as an
+    * unmodifiable list. For annotations created by a builder, these methods do not copy the
+    * array.
+    */
+   static final String OPTION_ARRAY_VIEWS = "artificer.arrayViews";
+
+   /**
+    * The processor option that enables sharing of equal member values among built annotations.
+    * When {@code true}, the array and string values of annotations created by generated builders
+    * are pooled, using {@link com.bluegosling.artificer.builders.ValuePool}, so that annotations
+    * with equal values share a single copy.
+    */
+   static final String OPTION_VALUE_POOL = "artificer.valuePool";
+
+   /** The prefix of the first line of deterministic output, which records the content hash. */
+   private static final String CONTENT_HASH_PREFIX = "// artificer-content-hash: ";
+
    /**
     * Packages to exclude from consideration. We can't generate code in the "java" package (or any
     * sub-packages) since that requires a boot classpath to load. So we don't even try. Also, a
@@ -77,51 +205,526 @@ public abstract class AbstractMetaMetaProcessor extends AbstractProcessor {
     */
    private final AnnotationQueue queue = new AnnotationQueue();
 
+   /** Models of annotation types, shared by all rounds and all generators. */
+   private AnnotationModels models;
+
+   /** Whether generated sources should be deterministic (e.g. no timestamps). */
+   private boolean deterministic;
+
+   /** The generators that produce code for the processed annotations. */
+   private List<AnnotationGenerator> generators;
+
+   /** The cache of generated sources or {@code null} if no cache directory is configured. */
+   private GenerationCache cache;
+
+   /** The number of threads used to generate code. */
+   private int parallelism;
+
+   /** The pool that generates code, created on first use. */
+   private ForkJoinPool executor;
+
+   /** Performance statistics or {@code null} if no report was requested. */
+   private ProcessorStats stats;
+
+   /** The names of known markers, for any of the generators, that are claimed by this processor. */
+   private Set<String> indexedMarkers;
+
+   /**
+    * Whether all annotations are claimed. If false, only the meta-meta-annotations and indexed
+    * markers are claimed.
+    */
+   private boolean claimAllAnnotations;
+
+   /**
+    * Whether annotations that have been examined are markers, keyed by name, so they aren't
+    * examined again in later rounds. This is only used if all annotations are claimed.
+    */
+   private final Map<String, Boolean> examinedAnnotations = new HashMap<>();
+
+   /**
+    * The names of markers defined in the current compilation. Since these aren't in any index, they
+    * may not be claimed, so we must query for their elements explicitly in every round.
+    */
+   private final Set<String> compiledMarkers = new LinkedHashSet<>();
+
+   @Override
+   public synchronized void init(ProcessingEnvironment processingEnv) {
+      super.init(processingEnv);
+      generators = createGenerators();
+      models = new AnnotationModels(processingEnv.getElementUtils());
+      deterministic = Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_DETERMINISTIC));
+      claimAllAnnotations =
+            Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_CLAIM_ALL_ANNOTATIONS));
+      indexedMarkers = readMarkerIndex();
+      parallelism = Runtime.getRuntime().availableProcessors();
+      String parallelismOption = processingEnv.getOptions().get(OPTION_PARALLELISM);
+      if (parallelismOption != null) {
+         try {
+            parallelism = Math.max(1, Integer.parseInt(parallelismOption.trim()));
+         } catch (NumberFormatException e) {
+            processingEnv.getMessager().printMessage(Kind.WARNING,
+                  "Invalid value for " + OPTION_PARALLELISM + ": " + parallelismOption);
+         }
+      }
+      String statsFile = processingEnv.getOptions().get(OPTION_STATS);
+      if (statsFile != null) {
+         stats = new ProcessorStats(Paths.get(statsFile));
+      }
+      String cacheDir = processingEnv.getOptions().get(OPTION_CACHE_DIR);
+      if (cacheDir != null) {
+         // options other than the cache location, thread count, report location, and which
+         // annotations are claimed can influence generated code
+         Set<String> ignored = ImmutableSet.of(OPTION_CACHE_DIR, OPTION_PARALLELISM, OPTION_STATS,
+               OPTION_CLAIM_ALL_ANNOTATIONS);
+         Map<String, String> options = new TreeMap<>();
+         for (String option : getSupportedOptions()) {
+            if (!ignored.contains(option)) {
+               options.put(option, processingEnv.getOptions().get(option));
+            }
+         }
+         try {
+            cache = new GenerationCache(Paths.get(cacheDir), processingEnv.getElementUtils(),
+                  getClass(), options);
+         } catch (IOException | RuntimeException e) {
+            processingEnv.getMessager().printMessage(Kind.WARNING,
+                  "Failed to initialize cache in " + cacheDir + "; cache will not be used: " + e);
+         }
+      }
+   }
+
+   @Override
+   public Set<String> getSupportedOptions() {
+      return ImmutableSet.of(OPTION_DETERMINISTIC, OPTION_CACHE_DIR, OPTION_PARALLELISM,
+            OPTION_STATS, OPTION_ARRAY_VIEWS, OPTION_VALUE_POOL, OPTION_CLAIM_ALL_ANNOTATIONS);
+   }
+
    @Override
    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      long roundStart = System.nanoTime();
+      if (stats != null) {
+         stats.newRound();
+      }
       queue.newRound(annotations, roundEnv);
 
+      // Code is generated in three phases. First, on the compiler's thread, we snapshot each
+      // annotation into an immutable model (the compiler's model APIs are not thread-safe). Then
+      // we render sources from those models concurrently. Finally, back on the compiler's thread,
+      // we write the sources using the Filer.
+      List<GeneratedSource> sources = new ArrayList<>();
       while (!queue.isEmpty()) {
-         processAnnotation(queue.poll());
+         Map.Entry<TypeElement, Set<AnnotationGenerator>> entry = queue.poll();
+         snapshot(entry.getKey(), entry.getValue(), sources);
+      }
+      render(sources);
+      for (GeneratedSource source : sources) {
+         write(source);
       }
 
+      if (stats != null) {
+         stats.endRound(System.nanoTime() - roundStart);
+      }
+      if (roundEnv.processingOver()) {
+         if (executor != null) {
+            executor.shutdown();
+            executor = null;
+         }
+         if (stats != null) {
+            writeStats();
+         }
+      }
       return false;
    }
 
+   private void writeStats() {
+      try {
+         stats.write(getClass().getName());
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Kind.WARNING,
+               "Failed to write performance report to " + stats.file() + ": " + e);
+      }
+   }
+
    @Override
    public Set<String> getSupportedAnnotationTypes() {
-      // we have to see all of them to find possibly user-defined meta-annotations
-      return ImmutableSet.of("*");
+      if (claimAllAnnotations) {
+         return ImmutableSet.of("*");
+      }
+      // we also claim the meta-meta-annotations so we can find markers in the current compilation
+      return ImmutableSet.<String>builder()
+            .addAll(metaMetaNames())
+            .addAll(indexedMarkers)
+            .build();
    }
 
-   /** Returns the meta-meta-annotation of interest. */
-   protected abstract Class<? extends Annotation> metaMetaAnnotation();
+   /** Determines if the given annotation is a marker for any of the generators. */
+   private boolean isMarker(TypeElement annotation) {
+      for (AnnotationGenerator generator : generators) {
+         if (MoreElements.isAnnotationPresent(annotation, generator.metaMetaAnnotation())) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /** Returns the names of the meta-meta-annotations of all generators. */
+   private Set<String> metaMetaNames() {
+      Set<String> names = new LinkedHashSet<>();
+      for (AnnotationGenerator generator : generators) {
+         names.add(generator.metaMetaAnnotation().getCanonicalName());
+      }
+      return names;
+   }
 
-   /** Processes a single annotation that is (indirectly) marked with the meta-meta-annotation. */
-   protected abstract void processAnnotation(TypeElement annotation);
+   /**
+    * Reads the names of all markers for the generators' meta-meta-annotations from the marker
+    * indexes on the annotation processor path and on the class path, which may be distinct.
+    */
+   private Set<String> readMarkerIndex() {
+      Set<String> metaMetaNames = metaMetaNames();
+      Set<String> markers = new LinkedHashSet<>();
+      try {
+         Enumeration<URL> indexes = getClass().getClassLoader().getResources(MARKER_INDEX);
+         while (indexes.hasMoreElements()) {
+            parseMarkerIndex(Resources.toString(indexes.nextElement(), Charsets.UTF_8),
+                  metaMetaNames, markers);
+         }
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Kind.WARNING,
+               "Failed to read marker index from processor path: " + e);
+      }
+      JavaFileManager fileManager = compilerFileManager();
+      if (fileManager != null) {
+         // the file manager lists the index in every class path entry
+         try {
+            for (JavaFileObject index : fileManager.list(StandardLocation.CLASS_PATH,
+                  MARKER_INDEX_PACKAGE, EnumSet.of(JavaFileObject.Kind.OTHER), false)) {
+               if (index.toUri().toString().endsWith(MARKER_INDEX)) {
+                  parseMarkerIndex(index.getCharContent(true), metaMetaNames, markers);
+               }
+            }
+            return markers;
+         } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Kind.WARNING,
+                  "Failed to read marker index from class path: " + e);
+         }
+      }
+      // the Filer can only read the first index on the class path
+      try {
+         FileObject index = processingEnv.getFiler()
+               .getResource(StandardLocation.CLASS_PATH, "", MARKER_INDEX);
+         parseMarkerIndex(index.getCharContent(true), metaMetaNames, markers);
+      } catch (IOException | IllegalArgumentException e) {
+         // no index on the class path
+      }
+      return markers;
+   }
+
+   /**
+    * Returns the compiler's file manager or {@code null} if it is not accessible. The processing
+    * environment provides no way to enumerate resources on the class path, so this uses javac's
+    * internal API, via reflection. That fails with other compilers and, on Java 9 and newer,
+    * unless javac's internal packages are opened to the processor.
+    */
+   private JavaFileManager compilerFileManager() {
+      try {
+         Object context = processingEnv.getClass().getMethod("getContext").invoke(processingEnv);
+         Object fileManager = context.getClass().getMethod("get", Class.class)
+               .invoke(context, JavaFileManager.class);
+         return fileManager instanceof JavaFileManager ? (JavaFileManager) fileManager : null;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+         return null;
+      }
+   }
+
+   private static void parseMarkerIndex(CharSequence index, Set<String> metaMetaNames,
+         Set<String> markers) {
+      for (String line : Splitter.on('\n').split(index)) {
+         line = line.trim();
+         if (line.isEmpty() || line.startsWith("#")) {
+            continue;
+         }
+         List<String> entry = ON_WHITESPACE.splitToList(line);
+         if (entry.size() == 2 && metaMetaNames.contains(entry.get(0))) {
+            markers.add(entry.get(1));
+         }
+      }
+   }
+
+   /**
+    * Creates the generators that produce code for processed annotations. This is called once,
+    * when the processor is initialized, so the processing environment and its options are
+    * available.
+    *
+    * @return the generators, each with a distinct meta-meta-annotation
+    */
+   abstract List<AnnotationGenerator> createGenerators();
+
+   /**
+    * Prepares a single annotation for code generation. This enqueues any annotations nested
+    * therein and then snapshots the annotation into a model, which is shared by all of the given
+    * generators. A source is added to the given list for each generator. If a generated source is
+    * in the cache, it is loaded, too.
+    */
+   private void snapshot(TypeElement annotation, Set<AnnotationGenerator> generatorsForType,
+         List<GeneratedSource> sources) {
+      long start = System.nanoTime();
+      AnnotationModel model = null;
+      String cacheKey = null;
+      Exception failure = null;
+      try {
+         model = models.get(annotation);
+         enqueueNestedAnnotations(annotation, model, generatorsForType);
+         if (cache != null) {
+            cacheKey = cache.key(annotation);
+         }
+      } catch (Exception e) {
+         failure = e;
+      }
+      List<GeneratedSource> sourcesForType = new ArrayList<>(generatorsForType.size());
+      for (AnnotationGenerator generator : generatorsForType) {
+         GeneratedSource source = new GeneratedSource(annotation, generator);
+         sourcesForType.add(source);
+         if (failure != null) {
+            source.failure = failure;
+            continue;
+         }
+         source.model = model;
+         source.className = generator.generatedClassName(model.type());
+         if (cacheKey != null) {
+            // the structure of the annotation is the same for all generators, but the output is not
+            source.cacheKey = cacheKey + "-" + generator.getClass().getSimpleName();
+            source.source = readCache(source.cacheKey);
+            source.cached = source.source != null;
+         }
+      }
+      sources.addAll(sourcesForType);
+      if (stats != null) {
+         ProcessorStats.AnnotationStats annotationStats = stats.analyzed(
+               annotation.getQualifiedName().toString(), System.nanoTime() - start);
+         for (GeneratedSource source : sourcesForType) {
+            source.stats = annotationStats;
+         }
+      }
+   }
+
+   /**
+    * Renders the given sources that are not already loaded from the cache. When there is more than
+    * one, they are rendered concurrently.
+    */
+   private void render(List<GeneratedSource> sources) {
+      List<GeneratedSource> toRender = new ArrayList<>(sources.size());
+      for (GeneratedSource source : sources) {
+         if (source.source == null && source.failure == null) {
+            toRender.add(source);
+         }
+      }
+      if (toRender.isEmpty()) {
+         return;
+      }
+      if (toRender.size() == 1 || parallelism == 1) {
+         for (GeneratedSource source : toRender) {
+            try {
+               source.source = generate(source);
+            } catch (Exception e) {
+               source.failure = e;
+            }
+         }
+         return;
+      }
+
+      List<Callable<String>> tasks = new ArrayList<>(toRender.size());
+      for (final GeneratedSource source : toRender) {
+         tasks.add(new Callable<String>() {
+            @Override
+            public String call() {
+               return generate(source);
+            }
+         });
+      }
+      if (executor == null) {
+         executor = new ForkJoinPool(parallelism);
+      }
+      List<Future<String>> results;
+      try {
+         results = executor.invokeAll(tasks);
+      } catch (RuntimeException e) {
+         for (GeneratedSource source : toRender) {
+            source.failure = e;
+         }
+         return;
+      }
+      for (int i = 0; i < results.size(); i++) {
+         GeneratedSource source = toRender.get(i);
+         try {
+            source.source = results.get(i).get();
+         } catch (ExecutionException e) {
+            source.failure = e.getCause();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            source.failure = e;
+         }
+      }
+   }
+
+   /** Renders the given source. This may be called concurrently from multiple threads. */
+   private String generate(GeneratedSource source) {
+      long start = System.nanoTime();
+      String result =
+            source.generator.generate(source.model, generatedAnnotation(source.model)).toString();
+      source.generateNanos = System.nanoTime() - start;
+      return result;
+   }
+
+   /**
+    * Writes a single generated source, on the compiler's thread. Newly rendered sources are also
+    * stored in the cache.
+    */
+   private void write(GeneratedSource source) {
+      try {
+         if (source.failure != null) {
+            Throwables.propagateIfPossible(source.failure, Exception.class);
+            throw new RuntimeException(source.failure);
+         }
+         if (source.cacheKey != null && !source.cached) {
+            writeCache(source.cacheKey, source.source);
+         }
+         long start = System.nanoTime();
+         boolean written = writeSourceFile(source.className, source.source, source.annotation);
+         models.generated(source.className);
+         if (source.stats != null) {
+            source.stats.generated(source.className.toString(), source.cached,
+                  source.generateNanos, System.nanoTime() - start,
+                  written ? source.source.getBytes(Charsets.UTF_8).length : 0);
+         }
+      } catch (Exception e) {
+         processingEnv.getMessager().printMessage(Kind.ERROR, Throwables.getStackTraceAsString(e));
+      }
+   }
+
+   private String readCache(String key) {
+      try {
+         return cache.get(key);
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Kind.WARNING,
+               "Failed to read cache entry " + key + ": " + e);
+         return null;
+      }
+   }
+
+   private void writeCache(String key, String source) {
+      try {
+         cache.put(key, source);
+      } catch (IOException e) {
+         processingEnv.getMessager().printMessage(Kind.WARNING,
+               "Failed to write cache entry " + key + ": " + e);
+      }
+   }
+
+   /**
+    * Enqueues annotation types that are returned by methods of the given annotation, so that code
+    * is generated for them, too, by the same generators. Types for which code has already been
+    * generated (or queued) are skipped.
+    */
+   private void enqueueNestedAnnotations(TypeElement annotation, AnnotationModel model,
+         Set<AnnotationGenerator> generatorsForType) {
+      for (AnnotationModel.Member member : model.members()) {
+         ClassName nestedName = member.annotationType();
+         if (nestedName == null) {
+            continue;
+         }
+         Set<AnnotationGenerator> needed = new LinkedHashSet<>();
+         for (AnnotationGenerator generator : generatorsForType) {
+            if (!queue.hasSeen(nestedName.toString(), generator)
+                  && !models.exists(generator.generatedClassName(nestedName))) {
+               needed.add(generator);
+            }
+         }
+         if (needed.isEmpty()) {
+            continue;
+         }
+         // we need the elements to enqueue the type (and to report problems with it)
+         for (ExecutableElement method : ElementFilter.methodsIn(annotation.getEnclosedElements())) {
+            if (method.getSimpleName().contentEquals(member.name())) {
+               TypeMirror type = method.getReturnType();
+               if (type.getKind() == TypeKind.ARRAY) {
+                  type = ((ArrayType) type).getComponentType();
+               }
+               queue.add(MoreElements.asType(((DeclaredType) type).asElement()), needed, method);
+               break;
+            }
+         }
+      }
+   }
 
    /**
     * Creates an {@literal @}{@link Generated} annotation for source code generated on behalf of the
-    * given type.
+    * given type. The annotation includes the current date unless output is
+    * {@linkplain #OPTION_DETERMINISTIC deterministic}. This is safe to call concurrently.
     * 
     * @param onBehalfOfType the type on whose behalf code is generated
     * @return an annotation spec
     */
-   protected AnnotationSpec generatedAnnotation(TypeElement onBehalfOfType) {
-      return AnnotationSpec.builder(Generated.class)
+   private AnnotationSpec generatedAnnotation(AnnotationModel onBehalfOfType) {
+      AnnotationSpec.Builder generated = AnnotationSpec.builder(Generated.class)
             .addMember("value", "$S", getClass().getSimpleName())
-            .addMember("comments", "\"Generated for $L\"",
-                  onBehalfOfType.getQualifiedName().toString())
-            .addMember("date", "$S", ISO_8601.format(new Date()))
-            .build();
+            .addMember("comments", "\"Generated for $L\"", onBehalfOfType.qualifiedName());
+      if (!deterministic) {
+         // date formats aren't thread-safe, so we create a new one every time
+         generated.addMember("date", "$S", new SimpleDateFormat(ISO_8601).format(new Date()));
+      }
+      return generated.build();
    }
    
    /**
-    * Adds an annotation to the queue to be processed. If a processor recursively processes nested
-    * annotation types, for example, then it can use this method to enqueue those nested types.
+    * Writes the given generated file using the {@link Filer}. The given type is recorded as the
+    * file's only originating element, which is what allows incremental builds to determine which
+    * outputs are stale when that type changes.
+    *
+    * <p>If output is {@linkplain #OPTION_DETERMINISTIC deterministic}, the file's first line records
+    * a hash of its content. If the type is already visible to the compiler (e.g. from a prior build's
+    * output) and the existing file has the same hash, the file is not re-written.
+    *
+    * @param className the name of the generated class
+    * @param source the generated source
+    * @param originatingElement the annotation type on whose behalf the file was generated
+    * @return true if the file was written or false if it was unchanged
+    * @throws IOException if the file could not be created or written
+    */
+   private boolean writeSourceFile(ClassName className, String source,
+         TypeElement originatingElement) throws IOException {
+      String typeName = className.toString();
+      if (deterministic) {
+         String hashLine = CONTENT_HASH_PREFIX
+               + Hashing.sha256().hashString(source, Charsets.UTF_8) + "\n";
+         if (isUnchanged(className, hashLine)) {
+            return false;
+         }
+         source = hashLine + source;
+      }
+      JavaFileObject outputFile =
+            processingEnv.getFiler().createSourceFile(typeName, originatingElement);
+      try (Writer writer = new BufferedWriter(outputFile.openWriter())) {
+         writer.write(source);
+      }
+      return true;
+   }
+
+   /**
+    * Determines if the given type has already been generated with the same content, as indicated by
+    * the given first line of the source file that records its content hash.
     */
-   protected void enqueueAnnotation(TypeElement annotation, ExecutableElement source) {
-      queue.add(annotation, source);
+   private boolean isUnchanged(ClassName className, String hashLine) {
+      if (processingEnv.getElementUtils().getTypeElement(className.toString()) == null) {
+         // not visible to the compiler, so it must be (re-)generated
+         return false;
+      }
+      try {
+         FileObject existing = processingEnv.getFiler().getResource(StandardLocation.SOURCE_OUTPUT,
+               className.packageName(), className.simpleName() + ".java");
+         return existing.getCharContent(true).toString().startsWith(hashLine);
+      } catch (IOException | IllegalArgumentException e) {
+         return false;
+      }
    }
 
    /**
@@ -138,50 +741,150 @@ public abstract class AbstractMetaMetaProcessor extends AbstractProcessor {
    }
 
    /**
-    * Queue of annotation types to be processed. This will not return enqueued elements that are
+    * The state of code generation for a single annotation type. This is created and consumed on the
+    * compiler's thread, but the {@link #source} (or {@link #failure}) may be computed by another
+    * thread.
+    */
+   private static class GeneratedSource {
+      final TypeElement annotation;
+      final AnnotationGenerator generator;
+      AnnotationModel model;
+      ClassName className;
+      String cacheKey;
+      boolean cached;
+      String source;
+      Throwable failure;
+      long generateNanos;
+      ProcessorStats.AnnotationStats stats;
+
+      GeneratedSource(TypeElement annotation, AnnotationGenerator generator) {
+         this.annotation = annotation;
+         this.generator = generator;
+      }
+   }
+
+   /** A type that has been deferred because it refers to types that could not be resolved. */
+   private static class DeferredType {
+      final Set<AnnotationGenerator> generators;
+      /** Simple names of unresolved types or empty if it must be retried in every round. */
+      Set<String> waitingOn;
+
+      DeferredType(Set<AnnotationGenerator> generators, Set<String> waitingOn) {
+         this.generators = generators;
+         this.waitingOn = waitingOn;
+      }
+   }
+
+   /**
+    * Queue of annotation types to be processed. Each type is queued with the generators that apply
+    * to it. This will not return enqueued elements that are
     * {@linkplain SuperficialValidation#validateElement(Element) invalid} but instead defer them
     * to subsequent rounds. It also discards elements that are either not allowed to be processed
     * (due to the declaring package) or that do not need to be processed (non-root elements that
-    * already have associated builders).
+    * already have associated generated classes).
+    *
+    * <p>A deferred element records the names of the unresolved types on which it is waiting. It is
+    * only re-examined in a round that introduces a type with one of those names. (If those names
+    * can't be determined, it is re-examined in every round.) Elements are tracked across rounds by
+    * name, not by {@link TypeElement}, so the compiler's symbols from prior rounds aren't retained.
     */
    private class AnnotationQueue {
-      private final Set<String> deferred = new LinkedHashSet<>();
-      private final Set<TypeElement> alreadySeen = new HashSet<>();
-      private final Queue<TypeElement> queue = new LinkedList<>();
+      private final Map<String, DeferredType> deferred = new LinkedHashMap<>();
+      private final Map<String, Set<AnnotationGenerator>> alreadySeen = new HashMap<>();
+      private final Map<TypeElement, Set<AnnotationGenerator>> queue = new LinkedHashMap<>();
 
       AnnotationQueue() {
       }
 
-      public TypeElement poll() {
-         return queue.remove();
+      /** Determines if the given type has already been queued for the given generator. */
+      public boolean hasSeen(String name, AnnotationGenerator generator) {
+         Set<AnnotationGenerator> seen = alreadySeen.get(name);
+         return seen != null && seen.contains(generator);
+      }
+
+      public Map.Entry<TypeElement, Set<AnnotationGenerator>> poll() {
+         Iterator<Map.Entry<TypeElement, Set<AnnotationGenerator>>> iter =
+               queue.entrySet().iterator();
+         Map.Entry<TypeElement, Set<AnnotationGenerator>> entry = iter.next();
+         iter.remove();
+         return entry;
       }
 
-      public void add(TypeElement e, ExecutableElement source) {
-         if (alreadySeen.add(e)) {
-            String pkg = forbiddenPackage(e);
-            if (pkg != null) {
-               processingEnv.getMessager().printMessage(Kind.WARNING,
-                     String.format("Cannot generate builder for %s because it is in package %s",
-                           e.getQualifiedName(), pkg),
-                     source);
-               return;
+      /**
+       * Adds the given type to the queue, for the given generators. Generators that have
+       * already been queued for the type are ignored. If the type is already queued for other
+       * generators, the generators are merged, so the type is still only analyzed once.
+       */
+      public void add(TypeElement e, Set<AnnotationGenerator> generatorsForType, Element source) {
+         String name = e.getQualifiedName().toString();
+         Set<AnnotationGenerator> seen = alreadySeen.get(name);
+         if (seen == null) {
+            seen = new LinkedHashSet<>();
+            alreadySeen.put(name, seen);
+         }
+         Set<AnnotationGenerator> unseen = new LinkedHashSet<>(generatorsForType);
+         unseen.removeAll(seen);
+         if (unseen.isEmpty()) {
+            return;
+         }
+         seen.addAll(unseen);
+         String pkg = forbiddenPackage(e);
+         if (pkg != null) {
+            processingEnv.getMessager().printMessage(Kind.WARNING,
+                  String.format("Cannot generate code for %s because it is in package %s",
+                        e.getQualifiedName(), pkg),
+                  source);
+            if (stats != null) {
+               stats.skipped();
             }
-            if (SuperficialValidation.validateElement(e)) {
-               queue.add(e);
-            } else {
-               deferred.add(e.getQualifiedName().toString());
+            return;
+         }
+         if (SuperficialValidation.validateElement(e)) {
+            enqueue(e, unseen);
+         } else {
+            defer(e, unseen);
+         }
+      }
+
+      private void defer(TypeElement e, Set<AnnotationGenerator> generatorsForType) {
+         String name = e.getQualifiedName().toString();
+         DeferredType d = deferred.get(name);
+         if (d == null) {
+            deferred.put(name, new DeferredType(generatorsForType, UnresolvedTypes.simpleNames(e)));
+            if (stats != null) {
+               stats.deferred();
             }
+         } else {
+            d.generators.addAll(generatorsForType);
+         }
+      }
+
+      private void enqueue(TypeElement e, Set<AnnotationGenerator> generatorsForType) {
+         if (merge(queue, e, generatorsForType) && stats != null) {
+            stats.queued();
          }
       }
 
+      /** Merges the given generators into the map, returning true if the key was not present. */
+      private <K> boolean merge(Map<K, Set<AnnotationGenerator>> map, K key,
+            Set<AnnotationGenerator> generatorsForType) {
+         Set<AnnotationGenerator> existing = map.get(key);
+         if (existing == null) {
+            map.put(key, generatorsForType);
+            return true;
+         }
+         existing.addAll(generatorsForType);
+         return false;
+      }
+
       public boolean isEmpty() {
          return queue.isEmpty();
       }
 
       /**
        * Seeds the queue with elements from a new processing round. If any elements from prior
-       * rounds
-       * were deferred, they will be included in the queue if they are now valid in the new round.
+       * rounds were deferred, they will be included in the queue if they are now valid in the new
+       * round.
        */
       public void newRound(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
          if (roundEnv.processingOver()) {
@@ -190,62 +893,157 @@ public abstract class AbstractMetaMetaProcessor extends AbstractProcessor {
          }
 
          // first get any deferred elements that are now valid
-         for (Iterator<String> iter = deferred.iterator(); iter.hasNext();) {
-            TypeElement type = processingEnv.getElementUtils().getTypeElement(iter.next());
-            if (type != null && SuperficialValidation.validateElement(type)) {
-               alreadySeen.add(type);
-               queue.add(type);
-               iter.remove();
+         if (!deferred.isEmpty()) {
+            Set<String> newTypes = simpleNamesOf(roundEnv.getRootElements());
+            for (Iterator<Map.Entry<String, DeferredType>> iter = deferred.entrySet().iterator();
+                  iter.hasNext();) {
+               Map.Entry<String, DeferredType> entry = iter.next();
+               DeferredType d = entry.getValue();
+               if (!d.waitingOn.isEmpty() && Collections.disjoint(d.waitingOn, newTypes)) {
+                  // nothing it's waiting on has appeared, so it can't be valid yet
+                  continue;
+               }
+               TypeElement type = processingEnv.getElementUtils().getTypeElement(entry.getKey());
+               if (type == null) {
+                  continue;
+               }
+               if (SuperficialValidation.validateElement(type)) {
+                  enqueue(type, d.generators);
+                  iter.remove();
+               } else {
+                  // still invalid, but it may now be waiting on something else
+                  d.waitingOn = UnresolvedTypes.simpleNames(type);
+               }
             }
          }
 
-         Class<? extends Annotation> metaMeta = metaMetaAnnotation();
-         // then add any new elements for this round
+         Set<String> metaMetaNames = metaMetaNames();
+         // if we only claim the meta-meta-annotations and markers, all annotations in the round are
+         // markers except for the meta-meta-annotations, which lead us to new markers; otherwise,
+         // annotations we haven't seen before must be examined
+         Set<TypeElement> markers = new LinkedHashSet<>();
          for (TypeElement annotation : annotations) {
-            if (!MoreElements.isAnnotationPresent(annotation, metaMeta)) {
+            String name = annotation.getQualifiedName().toString();
+            if (metaMetaNames.contains(name)) {
+               for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+                  if (e.getKind() == ElementKind.ANNOTATION_TYPE) {
+                     compiledMarkers.add(MoreElements.asType(e).getQualifiedName().toString());
+                  }
+               }
+            } else if (!claimAllAnnotations || indexedMarkers.contains(name)
+                  || compiledMarkers.contains(name)) {
+               markers.add(annotation);
+            } else {
+               Boolean isMarker = examinedAnnotations.get(name);
+               if (isMarker == null) {
+                  isMarker = isMarker(annotation);
+                  examinedAnnotations.put(name, isMarker);
+               }
+               if (isMarker) {
+                  markers.add(annotation);
+               }
+            }
+         }
+         for (String name : compiledMarkers) {
+            TypeElement marker = processingEnv.getElementUtils().getTypeElement(name);
+            if (marker != null) {
+               markers.add(marker);
+            }
+         }
+
+         // then find any new elements for this round, and the generators that apply to each
+         Map<TypeElement, Set<AnnotationGenerator>> roots = new LinkedHashMap<>();
+         for (TypeElement annotation : markers) {
+            // an index could be stale, so make sure the marker is still actually a marker
+            Set<AnnotationGenerator> generatorsForMarker = new LinkedHashSet<>();
+            List<String> metaMetas = new ArrayList<>();
+            for (AnnotationGenerator generator : generators) {
+               if (MoreElements.isAnnotationPresent(annotation, generator.metaMetaAnnotation())) {
+                  generatorsForMarker.add(generator);
+                  metaMetas.add(generator.metaMetaAnnotation().getName());
+               }
+            }
+            if (generatorsForMarker.isEmpty()) {
                continue;
             }
-            processingEnv.getMessager().printMessage(Kind.NOTE, "Processing " + annotation + " (marked with " + metaMeta + ")");
-            for (Element e : roundEnv.getElementsAnnotatedWith(annotation)) {
+            Set<? extends Element> marked = roundEnv.getElementsAnnotatedWith(annotation);
+            if (marked.isEmpty()) {
+               continue;
+            }
+            processingEnv.getMessager().printMessage(Kind.NOTE, "Processing " + annotation
+                  + " (marked with " + Joiner.on(", ").join(metaMetas) + ")");
+            for (Element e : marked) {
                if (e.getKind() == ElementKind.ANNOTATION_TYPE) {
                   TypeElement type = MoreElements.asType(e);
-                  String pkg = forbiddenPackage(type);
-                  if (pkg != null) {
-                     processingEnv.getMessager().printMessage(Kind.WARNING,
-                           String.format(
-                                 "Cannot generate builder for %s because it is in package %s",
-                                 type.getQualifiedName(), pkg),
-                           type);
-                  } else if (alreadySeen.add(type)) {
-                     if (SuperficialValidation.validateElement(type)) {
-                        queue.add(type);
-                     } else {
-                        deferred.add(type.getQualifiedName().toString());
-                     }
+                  Set<AnnotationGenerator> existing = roots.get(type);
+                  if (existing == null) {
+                     roots.put(type, new LinkedHashSet<>(generatorsForMarker));
+                  } else {
+                     existing.addAll(generatorsForMarker);
                   }
                }
             }
          }
+         for (Map.Entry<TypeElement, Set<AnnotationGenerator>> entry : roots.entrySet()) {
+            add(entry.getKey(), entry.getValue(), entry.getKey());
+         }
       }
 
+      /** Returns the simple names of the given types and of all types nested therein. */
+      private Set<String> simpleNamesOf(Collection<? extends Element> elements) {
+         Set<String> names = new HashSet<>();
+         Deque<TypeElement> types = new ArrayDeque<>(ElementFilter.typesIn(elements));
+         while (!types.isEmpty()) {
+            TypeElement type = types.pop();
+            names.add(type.getSimpleName().toString());
+            types.addAll(ElementFilter.typesIn(type.getEnclosedElements()));
+         }
+         return names;
+      }
+
+      /**
+       * Reports types that are still deferred when processing is over. Where possible, each
+       * unresolved edge is reported on the member that refers to it, naming the types that could
+       * not be resolved.
+       */
       private void reportMissing() {
-         for (String name : deferred) {
+         for (String name : deferred.keySet()) {
             TypeElement element = processingEnv.getElementUtils().getTypeElement(name);
-            if (element != null) {
+            if (element == null) {
+               processingEnv.getMessager().printMessage(ERROR, processingErrorMessage(name));
+               continue;
+            }
+            boolean reported = false;
+            for (ExecutableElement method
+                  : ElementFilter.methodsIn(element.getEnclosedElements())) {
+               Set<String> unresolved = UnresolvedTypes.simpleNames(method);
+               if (!unresolved.isEmpty()) {
+                  processingEnv.getMessager().printMessage(ERROR,
+                        processingErrorMessage("this member", unresolved), method);
+                  reported = true;
+               }
+            }
+            if (!reported) {
                processingEnv.getMessager().printMessage(ERROR,
-                     processingErrorMessage("this " + Ascii.toLowerCase(element.getKind().name())),
+                     processingErrorMessage("this " + Ascii.toLowerCase(element.getKind().name()),
+                           UnresolvedTypes.simpleNames(element)),
                      element);
-            } else {
-               processingEnv.getMessager().printMessage(ERROR, processingErrorMessage(name));
             }
          }
       }
 
       private String processingErrorMessage(String target) {
+         return processingErrorMessage(target, ImmutableSet.<String>of());
+      }
+
+      private String processingErrorMessage(String target, Set<String> unresolved) {
+         String dependencies = unresolved.isEmpty()
+               ? "not all of its dependencies could be resolved"
+               : "it refers to types that could not be resolved: " + Joiner.on(", ").join(unresolved);
          return String.format(
-               "%s was unable to process %s because not all of its dependencies could be resolved."
+               "%s was unable to process %s because %s. "
                      + "Check for compilation errors or a circular dependency with generated code.",
-               getClass().getCanonicalName(), target);
+               AbstractMetaMetaProcessor.this.getClass().getCanonicalName(), target, dependencies);
       }
    }
 }
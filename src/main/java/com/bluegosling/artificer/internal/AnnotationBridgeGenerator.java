@@ -0,0 +1,349 @@
+package com.bluegosling.artificer.internal;
+
+import com.bluegosling.artificer.bridges.Bridge;
+import com.bluegosling.artificer.bridges.BridgeMarker;
+import com.bluegosling.artificer.internal.AnnotationModel.Member;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+
+import java.lang.annotation.Annotation;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+
+/**
+ * A generator of bridge classes to accompany annotations indirectly marked with the
+ * meta-meta-annotation {@link BridgeMarker}, as well as any annotations nested therein. The
+ * generated class has the same name as the source annotation but with a "$Bridge" suffix.
+ */
+final class AnnotationBridgeGenerator implements AnnotationGenerator {
+   private static final String BRIDGE_NAME_SUFFIX = "$Bridge";
+
+   @Override
+   public Class<? extends Annotation> metaMetaAnnotation() {
+      return BridgeMarker.class;
+   }
+
+   @Override
+   public ClassName generatedClassName(ClassName annotation) {
+      return AnnotationModel.generatedClassName(annotation, BRIDGE_NAME_SUFFIX);
+   }
+
+   @Override
+   public JavaFile generate(AnnotationModel annotation, AnnotationSpec generated) {
+      return new BridgeGenerator(annotation, generated).generate();
+   }
+
+   /**
+    * Generates a bridge class for a given annotation. This only uses the immutable annotation
+    * model, so generators can run concurrently.
+    */
+   private class BridgeGenerator {
+      // the annotation, for which a bridge is generated
+      private final AnnotationModel annotation;
+      private final AnnotationSpec generated;
+      private final String packageName;
+      private final String annotationName;
+      private final TypeName annotationType;
+
+      // the generated builder class
+      private final TypeName bridgeType;
+      private TypeSpec.Builder bridge;
+
+      // code blocks which accumulate per-method statements
+      private CodeBlock.Builder ctorLocalVariables;
+      private CodeBlock.Builder ctorProcessValues;
+      private CodeBlock.Builder ctorInitializeFields;
+      private CodeBlock.Builder equalsImpl;
+      private CodeBlock.Builder hashCodeImpl;
+
+      BridgeGenerator(AnnotationModel annotation, AnnotationSpec generated) {
+         this.annotation = annotation;
+         this.generated = generated;
+         this.packageName = annotation.packageName();
+         this.annotationType = annotation.type();
+         this.bridgeType = generatedClassName(annotation.type());
+
+         // Get simple name for the annotation. If it's a nested type, dots become dollars in the
+         // generated class names: e.g. Outer.Inner produces Outer$Inner.
+         this.annotationName = annotation.simpleName();
+      }
+
+      /**
+       * Runs the generator and returns the resulting Java file.
+       */
+      public JavaFile generate() {
+         bridge = TypeSpec.classBuilder(annotationName + BRIDGE_NAME_SUFFIX)
+               .addModifiers(Modifier.PUBLIC)
+               .addAnnotation(generated)
+               .superclass(ParameterizedTypeName.get(ClassName.get(Bridge.class), annotationType))
+               .addJavadoc("A bridge for interacting with mirrors of {@link $T} annotations.",
+                     annotationType);
+
+         // we accumulate numerous code blocks that have per-method code all in a single sweep
+         // over the annotation's methods
+         ctorLocalVariables = CodeBlock.builder();
+         ctorProcessValues = CodeBlock.builder();
+         ctorInitializeFields = CodeBlock.builder();
+         equalsImpl = CodeBlock.builder();
+         hashCodeImpl = CodeBlock.builder();
+
+         boolean first = true;
+
+         // process each annotation method
+         for (Member method : annotation.members()) {
+            if (first) {
+               first = false;
+               equalsImpl.add("return ");
+               hashCodeImpl.add("return ");
+            } else {
+               equalsImpl.add("\n    && ");
+               hashCodeImpl.add("\n    + ");
+            }
+
+            new MethodProcessor(method).process();
+         }
+
+         // after processing all methods, we can now generate non-method-specific code
+         generateBridgeMethods();
+
+         // BOOM! done
+         return JavaFile.builder(packageName, bridge.build()).build();
+      }
+
+      private void generateBridgeMethods() {
+         // constructor
+         bridge.addMethod(MethodSpec.constructorBuilder()
+               .addModifiers(Modifier.PUBLIC)
+               .addParameter(AnnotationMirror.class, "mirror")
+               .addStatement("super(mirror, $T.class)", annotationType)
+               .addCode(ctorLocalVariables.build())
+               .addStatement("$T<? extends $T, ? extends $T> __values = mirror.getElementValues()",
+                     Map.class, ExecutableElement.class, AnnotationValue.class)
+               .beginControlFlow("for ($T __e : mirror.getAnnotationType().asElement().getEnclosedElements())",
+                     Element.class)
+                  .beginControlFlow("if (__e.getKind() != $T.METHOD)", ElementKind.class)
+                     .addStatement("continue")
+                  .endControlFlow()
+                  .addStatement("$T __ex = ($T) __e", ExecutableElement.class, ExecutableElement.class)
+                  .beginControlFlow("if (__ex.getModifiers().contains($T.STATIC)"
+                        + " || !__ex.getParameters().isEmpty()"
+                        + " || __ex.getSimpleName().contentEquals(\"hashCode\")"
+                        + " || __ex.getSimpleName().contentEquals(\"toString\")"
+                        + " || __ex.getSimpleName().contentEquals(\"annotationType\"))", Modifier.class)
+                     .addStatement("continue")
+                  .endControlFlow()
+                  .addStatement("$T __v = __values.get(__ex)", AnnotationValue.class)
+                  .beginControlFlow("if (__v == null)")
+                     .addStatement("__v = __ex.getDefaultValue()")
+                  .endControlFlow()
+                  .beginControlFlow("if (__v == null)")
+                     .addStatement("throw new $T(\"Invalid mirror: no value for \" + __ex.getSimpleName())",
+                           IllegalStateException.class)
+                  .endControlFlow()
+                  .beginControlFlow("switch (__ex.getSimpleName().toString())")
+                     .addCode(ctorProcessValues.build())
+                     .addCode("default:\n")
+                     .addStatement("throw new $T(\"Unrecognized method: \" + __ex.getSimpleName())",
+                           IllegalStateException.class)
+                  .endControlFlow()
+               .endControlFlow()
+               .addCode(ctorInitializeFields.build())
+               .addJavadoc("Creates a new bridge that wraps the given mirror")
+               .build());
+         
+         bridge.addMethod(MethodSpec.methodBuilder("equals")
+               .addAnnotation(Override.class)
+               .addModifiers(Modifier.PUBLIC)
+               .returns(boolean.class)
+               .addParameter(Object.class, "o")
+               .addStatement("if (this == o) return true")
+               .addStatement("if (!(o instanceof $T)) return false", bridgeType)
+               .addStatement("$T other = ($T) o", bridgeType, bridgeType)
+               .addStatement("if (other.annotationType() != $T.class) return false", annotationType)
+               .addCode(equalsImpl.add(";\n").build())
+               .build());
+
+         bridge.addMethod(MethodSpec.methodBuilder("hashCode")
+               .addAnnotation(Override.class)
+               .addModifiers(Modifier.PUBLIC)
+               .returns(int.class)
+               .addCode(hashCodeImpl.add(";\n").build())
+               .build());
+      }
+
+      /**
+       * Processes a single method on the annotation. Each method results in fields and methods on
+       * the generated builder and implementation class.
+       */
+      private class MethodProcessor {
+         private final Member method;
+         private final String methodName;
+         private final TypeName methodType;
+
+         // can vary from methodType, e.g. list instead of array, TypeElement instead of Class
+         private final TypeName bridgeFieldType;
+
+         // non-null if method type is an array
+         private final TypeName componentType;
+
+         MethodProcessor(Member method) {
+            this.method = method;
+
+            // We use the annotation method name extensively. Accessor and setter methods in
+            // the bridge class, as well as associated fields and local variables, are all
+            // named after it.
+            this.methodName = method.name();
+            this.methodType = method.type();
+
+            if (method.isArray()) {
+               this.componentType = getBridgeType();
+               this.bridgeFieldType = ParameterizedTypeName.get(ClassName.get(List.class),
+                     componentType.box());
+            } else {
+               this.componentType = null;
+               this.bridgeFieldType = getBridgeType();
+            }
+         }
+
+         /**
+          * Returns the type used in the bridge to represent values of the method or, for arrays,
+          * elements of the array.
+          */
+         private TypeName getBridgeType() {
+            switch (method.valueKind()) {
+               case ANNOTATION:
+                  return generatedClassName(method.annotationType());
+               case CLASS:
+                  return ClassName.get(TypeElement.class);
+               default:
+                  return method.valueType();
+            }
+         }
+
+
+         /** Generates code related to the current annotation method. */
+         public void process() {
+            generateBridgeCode();
+         }
+
+         /** Returns true if the current method's return type is an array. */
+         private boolean isArray() {
+            return method.isArray();
+         }
+
+         private void generateBridgeCode() {
+            // Field declaration
+            bridge.addField(
+                  FieldSpec.builder(bridgeFieldType, methodName, Modifier.PRIVATE, Modifier.FINAL)
+                  .build());
+
+            // Constructor code sections
+            ctorLocalVariables.addStatement("$T __tmp$L = null", bridgeFieldType.box(), methodName);
+
+            ctorProcessValues.add("case \"$L\":\n", methodName);
+            addFieldFromAnnotationValue(ctorProcessValues, "__tmp" + methodName, false,
+                  isArray(), "__v");
+            ctorProcessValues.addStatement("break");
+            
+            ctorInitializeFields.beginControlFlow("if (__tmp$L == null)", methodName)
+                  .addStatement("throw new $T(\"Invalid mirror: no value for $L\")",
+                        IllegalStateException.class, methodName)
+                  .endControlFlow();
+            if (isArray()) {
+               ctorInitializeFields.addStatement("this.$L = $T.unmodifiableList(__tmp$L)",
+                     methodName, Collections.class, methodName);
+            } else {
+               ctorInitializeFields.addStatement("this.$L = __tmp$L", methodName, methodName);
+            }
+
+            // Accessor method
+            bridge.addMethod(
+                  MethodSpec.methodBuilder(methodName)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(bridgeFieldType)
+                        .addStatement("return $L", methodName)
+                        .build());
+
+            // equals and hashCode
+            EqualsAndHashCode.addEquals(methodName, bridgeFieldType,
+                  CodeBlock.builder().add("other.$L", methodName).build(), equalsImpl);
+            EqualsAndHashCode.addHashCode(methodName, bridgeFieldType, hashCodeImpl);
+         }
+
+         /**
+          * Emits code that extracts a value of the current method from an annotation value named
+          * {@code source} and stores it in {@code dest} (or, if {@code destIsList}, adds it to
+          * {@code dest}). If {@code array} is true, the annotation value is an array and this emits
+          * code that processes each of its elements.
+          */
+         private void addFieldFromAnnotationValue(CodeBlock.Builder block, String dest,
+               boolean destIsList, boolean array, String source) {
+            if (array) {
+               if (destIsList) {
+                  throw new AssertionError("Nested arrays not allowed in annotation values");
+               }
+               block.addStatement(dest + " = new $T<>((($T<?>) " + source + ".getValue()).size())",
+                     ArrayList.class, List.class);
+               block.beginControlFlow("for ($T __o : ($T<?>) " + source + ".getValue())",
+                     Object.class, List.class);
+               block.addStatement("$T __av = ($T) __o",
+                     AnnotationValue.class, AnnotationValue.class);
+               addFieldFromAnnotationValue(block, dest, true, false, "__av");
+               block.endControlFlow();
+               return;
+            }
+            
+            String prefix, suffix;
+            if (destIsList) {
+               prefix = dest + ".add(";
+               suffix = ")";
+            } else {
+               prefix = dest + " = ";
+               suffix = "";
+            }
+            TypeName expectedType = method.valueType();
+            switch (method.valueKind()) {
+               case PRIMITIVE: case STRING:
+                  block.addStatement(prefix + "($T) " + source + ".getValue()" + suffix,
+                        expectedType.box());
+                  break;
+               case CLASS:
+                  block.addStatement(
+                        prefix + "($T) (($T) " + source + ".getValue()).asElement()" + suffix,
+                        TypeElement.class, DeclaredType.class);
+                  break;
+               case ENUM:
+                  block.addStatement(
+                        prefix + "$T.valueOf((($T) " + source + ".getValue()).getSimpleName().toString())" + suffix,
+                        expectedType, VariableElement.class);
+                  break;
+               case ANNOTATION:
+                  block.addStatement(prefix + "new $T(($T) " + source + ".getValue())" + suffix,
+                        generatedClassName(method.annotationType()), AnnotationMirror.class);
+                  break;
+               default:
+                  throw new AssertionError("Invalid type of annotation value: " + expectedType);
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,1470 @@
+package com.bluegosling.artificer.internal;
+
+import com.bluegosling.artificer.builders.Builder;
+import com.bluegosling.artificer.builders.BuilderMarker;
+import com.bluegosling.artificer.builders.ValuePool;
+import com.bluegosling.artificer.internal.AnnotationModel.Member;
+import com.bluegosling.artificer.internal.AnnotationModel.Value;
+import com.bluegosling.artificer.internal.AnnotationModel.ValueKind;
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.FieldSpec;
+import com.squareup.javapoet.JavaFile;
+import com.squareup.javapoet.MethodSpec;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+import com.squareup.javapoet.TypeSpec;
+import com.squareup.javapoet.WildcardTypeName;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.Modifier;
+
+/**
+ * A generator of builder classes to accompany annotations indirectly marked with the
+ * meta-meta-annotation {@link BuilderMarker}, as well as any annotations nested therein. The
+ * generated class has the same name as the source annotation but with a "$Builder" suffix.
+ */
+final class AnnotationBuilderGenerator implements AnnotationGenerator {
+   private static final String BUILDER_NAME_SUFFIX = "$Builder";
+   private static final String IMPL_NAME_SUFFIX = "$Impl";
+
+   /**
+    * The name of the constant that holds the instance with all default values. Like the names of
+    * other generated constants, this has a "__" prefix so it can't collide with the fields that are
+    * named after the annotation's members.
+    */
+   private static final String DEFAULT_INSTANCE = "__DEFAULT";
+
+   /**
+    * Returns the name of the constant that holds the default value for the given member. The member
+    * name is used verbatim (not converted to upper case) so that distinct members, like
+    * {@code fooBar} and {@code foo_bar}, have distinct constants.
+    */
+   private static String defaultConstant(String memberName) {
+      return "__DEFAULT_" + memberName;
+   }
+
+   /** Returns the name of the constant that holds an empty array for the given array member. */
+   private static String emptyConstant(String memberName) {
+      return "__EMPTY_" + memberName;
+   }
+
+   private final boolean arrayViews;
+   private final boolean valuePool;
+
+   /**
+    * Creates a new generator.
+    *
+    * @param arrayViews if true, generated builders include static methods for zero-copy access to
+    *       the array members of built annotations
+    * @param valuePool if true, built annotations share equal array and string values using a
+    *       {@link ValuePool}
+    */
+   AnnotationBuilderGenerator(boolean arrayViews, boolean valuePool) {
+      this.arrayViews = arrayViews;
+      this.valuePool = valuePool;
+   }
+
+   @Override
+   public Class<? extends Annotation> metaMetaAnnotation() {
+      return BuilderMarker.class;
+   }
+
+   @Override
+   public ClassName generatedClassName(ClassName annotation) {
+      return AnnotationModel.generatedClassName(annotation, BUILDER_NAME_SUFFIX);
+   }
+
+   @Override
+   public JavaFile generate(AnnotationModel annotation, AnnotationSpec generated) {
+      return new BuilderGenerator(annotation, generated).generate();
+   }
+
+   /**
+    * Generates a builder class (with enclosed implementation class) for a given annotation. This
+    * only uses the immutable annotation model, so generators can run concurrently.
+    */
+   private class BuilderGenerator {
+      // the annotation, for which a builder is generated
+      private final AnnotationModel annotation;
+      private final AnnotationSpec generated;
+      private final String packageName;
+      private final String annotationName;
+      private final TypeName annotationType;
+
+      // if every member has a default (or there are no members), a builder whose values haven't
+      // been changed always builds the same annotation, so it returns a shared instance
+      private final boolean hasDefaultInstance;
+
+      // the generated builder class
+      private TypeSpec.Builder builder;
+      private TypeName builderType;
+
+      // the generated implementation class
+      private TypeSpec.Builder impl;
+
+      // code blocks which accumulate per-method statements
+      private CodeBlock.Builder buildValidate;
+      private CodeBlock.Builder builderDefaultCtorInitializer;
+      private CodeBlock.Builder resetImpl;
+      private CodeBlock.Builder clearImpl;
+      private CodeBlock.Builder builderCopyCtorInitializer;
+      private CodeBlock.Builder builderImplCopyCtorInitializer;
+      private CodeBlock.Builder implCtorInitializer;
+      private CodeBlock.Builder equalsImpl;
+      private CodeBlock.Builder implEqualsImpl;
+      private CodeBlock.Builder hashCodeImpl;
+      private CodeBlock.Builder toStringImpl;
+      private CodeBlock.Builder appendableToStringImpl;
+
+      // the constant text that precedes the next member in the string form of the annotation
+      // (so it can be appended along with that member's name) and an estimate of the length of
+      // the whole string, used to size the buffer up front
+      private String toStringPrefix;
+      private int toStringLength;
+
+      BuilderGenerator(AnnotationModel annotation, AnnotationSpec generated) {
+         this.annotation = annotation;
+         this.generated = generated;
+         this.packageName = annotation.packageName();
+         this.annotationType = annotation.type();
+
+         // Get simple name for the annotation. If it's a nested type, dots become dollars in the
+         // generated class names: e.g. Outer.Inner produces Outer$Inner.
+         this.annotationName = annotation.simpleName();
+
+         boolean allDefaults = true;
+         for (Member member : annotation.members()) {
+            if (member.defaultValue() == null) {
+               allDefaults = false;
+               break;
+            }
+         }
+         this.hasDefaultInstance = allDefaults;
+      }
+
+      /**
+       * Runs the generator and returns the resulting Java file.
+       */
+      public JavaFile generate() {
+         builderType = ClassName.get(packageName, annotationName + BUILDER_NAME_SUFFIX);
+
+         builder = TypeSpec.classBuilder(annotationName + BUILDER_NAME_SUFFIX)
+               .addModifiers(Modifier.PUBLIC)
+               .addAnnotation(generated)
+               .superclass(ParameterizedTypeName.get(ClassName.get(Builder.class), annotationType))
+               .addJavadoc("A builder for creating new instances of {@link $T} annotations.",
+                     annotationType);
+
+         impl = TypeSpec.classBuilder(annotationName + IMPL_NAME_SUFFIX)
+               .addModifiers(Modifier.PRIVATE, Modifier.STATIC)
+               .addSuperinterface(annotationType)
+               .addMethod(MethodSpec.methodBuilder("annotationType")
+                     .addAnnotation(Override.class)
+                     .addModifiers(Modifier.PUBLIC)
+                     .returns(ParameterizedTypeName.get(ClassName.get(Class.class), annotationType))
+                     .addStatement("return $T.class", annotationType)
+                     .build());
+
+         // we accumulate numerous code blocks that have per-method code all in a single sweep
+         // over the annotation's methods
+         buildValidate = CodeBlock.builder();
+         builderDefaultCtorInitializer = CodeBlock.builder();
+         resetImpl = CodeBlock.builder();
+         clearImpl = CodeBlock.builder();
+         builderCopyCtorInitializer = CodeBlock.builder();
+         builderImplCopyCtorInitializer = CodeBlock.builder();
+         implCtorInitializer = CodeBlock.builder();
+         equalsImpl = CodeBlock.builder();
+         implEqualsImpl = CodeBlock.builder();
+         hashCodeImpl = CodeBlock.builder();
+         toStringImpl = CodeBlock.builder();
+         appendableToStringImpl = CodeBlock.builder();
+         toStringPrefix = "@" + annotationType + "(";
+         toStringLength = toStringPrefix.length() + 1;
+
+         boolean first = true;
+
+         // process each annotation method
+         for (Member method : annotation.members()) {
+            if (first) {
+               first = false;
+               equalsImpl.add("return ");
+               implEqualsImpl.add("return ");
+               hashCodeImpl.add("__h = ");
+            } else {
+               equalsImpl.add("\n    && ");
+               implEqualsImpl.add("\n    && ");
+               hashCodeImpl.add("\n    + ");
+            }
+
+            new MethodProcessor(method).process();
+         }
+         if (first) {
+            // no members, so all instances are equal
+            equalsImpl.add("return true");
+         }
+
+         // after processing all methods, we can now generate non-method-specific code
+         generateBuilderMethods();
+         generateImplMethods();
+
+         // nest the impl inside of the builder
+         builder.addType(impl.build());
+
+         // BOOM! done
+         return JavaFile.builder(packageName, builder.build()).build();
+      }
+
+      private void generateBuilderMethods() {
+         MethodSpec.Builder build = MethodSpec.methodBuilder("build")
+               .addAnnotation(Override.class)
+               .addModifiers(Modifier.PUBLIC)
+               .returns(annotationType);
+         if (hasDefaultInstance) {
+            // Declared after the constants for default values, so they are initialized first.
+            // The instance is created directly, since build() returns this field.
+            builder.addField(FieldSpec.builder(annotationType, DEFAULT_INSTANCE,
+                        Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                  .initializer("new $L$L(new $T())", annotationName, IMPL_NAME_SUFFIX, builderType)
+                  .build());
+            if (annotation.members().isEmpty()) {
+               build.addStatement("return $L", DEFAULT_INSTANCE);
+            } else {
+               builderDefaultCtorInitializer.addStatement("this.__built = $L", DEFAULT_INSTANCE);
+            }
+         }
+         if (!annotation.members().isEmpty()) {
+            // The last instance built is remembered until a value is changed, so building again
+            // from an unchanged builder doesn't have to copy any values.
+            builder.addField(annotationType, "__built", Modifier.PRIVATE);
+            build.beginControlFlow("if (__built != null)")
+                  .addStatement("return __built")
+                  .endControlFlow()
+                  .addCode(buildValidate.build())
+                  .addStatement("return __built = new $L$L(this)", annotationName,
+                        IMPL_NAME_SUFFIX);
+         }
+         generateFactory();
+         generateAppendTo();
+         builder.addMethod(build
+               .addJavadoc("Builds an instance of {@link $T} annotation using the values provided.\n"
+                     + "Any fields that have no default value must be provided before calling this\n"
+                     + "method. A builder whose values have not been changed since it last built an\n"
+                     + "annotation returns that same instance again. Similarly, one whose values\n"
+                     + "have not been changed since it was created returns a shared instance with\n"
+                     + "all default values or the instance from which it was copied.\n"
+                     + "\n"
+                     + "@return an annotation instance\n"
+                     + "@throws IllegalStateException if any fields have no default value and have\n"
+                     + "not been provided", annotationType)
+               .build());
+
+         // reset() and clear(), which are declared only on generated builders (not on the Builder
+         // base class, so that builders generated by older versions still link); after a reset, the builder is in its initial state, so it can
+         // return the shared default instance again (if there is one)
+         if (!annotation.members().isEmpty()) {
+            String built = hasDefaultInstance ? DEFAULT_INSTANCE : "null";
+            resetImpl.addStatement("this.__built = $L", built);
+            clearImpl.addStatement("this.__built = null");
+         }
+         builder.addMethod(MethodSpec.methodBuilder("reset")
+               .addModifiers(Modifier.PUBLIC)
+               .returns(builderType)
+               .addCode(resetImpl.build())
+               .addStatement("return this")
+               .addJavadoc("Resets all fields to their default values. Fields with no default value\n"
+                     + "become unset. Afterwards, the builder is in the same state as a newly\n"
+                     + "created one. Annotations that were already built are not affected.\n"
+                     + "\n"
+                     + "@return this builder")
+               .build());
+         builder.addMethod(MethodSpec.methodBuilder("clear")
+               .addModifiers(Modifier.PUBLIC)
+               .returns(builderType)
+               .addCode(clearImpl.build())
+               .addStatement("return this")
+               .addJavadoc("Clears all array fields, re-using their storage, and resets all other\n"
+                     + "fields to their default values. Fields with no default value, including\n"
+                     + "arrays, become unset.\n"
+                     + "\n"
+                     + "@return this builder")
+               .build());
+
+         // copy constructor; goes from impl to builder
+         CodeBlock.Builder copyCtor = CodeBlock.builder();
+         if (!annotation.members().isEmpty()) {
+            // An instance of the implementation class is immutable and its values are known to be
+            // valid, so the builder can just share them. (The builder never modifies elements of
+            // an array it didn't create.)
+            copyCtor.beginControlFlow("if (a instanceof $L$L)", annotationName, IMPL_NAME_SUFFIX)
+                  .addStatement("$L$L __impl = ($L$L) a", annotationName, IMPL_NAME_SUFFIX,
+                        annotationName, IMPL_NAME_SUFFIX)
+                  .add(builderImplCopyCtorInitializer.build());
+            copyCtor.addStatement("this.__built = __impl");
+            copyCtor.nextControlFlow("else")
+                  .add(builderCopyCtorInitializer.build())
+                  .endControlFlow();
+         }
+         builder.addMethod(MethodSpec.constructorBuilder()
+               .addModifiers(Modifier.PUBLIC)
+               .addParameter(annotationType, "a")
+               .addCode(copyCtor.build())
+               .addJavadoc("Creates a new builder where all values are initialized according to the\n"
+                     + "given {@link $T} annotation instance.", annotationType)
+               .build());
+
+         // also need an explicit no-arg constructor
+         builder.addMethod(MethodSpec.constructorBuilder()
+               .addModifiers(Modifier.PUBLIC)
+               .addCode(builderDefaultCtorInitializer.build())
+               .addJavadoc("Creates a new builder.")
+               .build());
+      }
+
+      private void generateImplMethods() {
+         impl.addMethod(MethodSpec.methodBuilder("equals")
+               .addAnnotation(Override.class)
+               .addModifiers(Modifier.PUBLIC)
+               .returns(boolean.class)
+               .addParameter(Object.class, "o")
+               .addStatement("if (this == o) return true")
+               .addCode(implEquals())
+               .addStatement("if (!(o instanceof $T)) return false", annotationType)
+               .addStatement("$T other = ($T) o", annotationType, annotationType)
+               .addStatement("if (other.annotationType() != $T.class) return false", annotationType)
+               .addCode(equalsImpl.add(";\n").build())
+               .build());
+
+         // The instance is immutable, so its hash code is computed at most once per thread (and
+         // usually just once). This uses the racy single-check idiom, like String.hashCode(): the
+         // field is not volatile since a thread that doesn't see the cached value just recomputes
+         // the same result. A hash code that happens to be zero is recomputed on every call.
+         MethodSpec.Builder hashCode = MethodSpec.methodBuilder("hashCode")
+               .addAnnotation(Override.class)
+               .addModifiers(Modifier.PUBLIC)
+               .returns(int.class);
+         if (annotation.members().isEmpty()) {
+            hashCode.addStatement("return 0");
+         } else {
+            impl.addField(int.class, "__hashCode", Modifier.PRIVATE);
+            hashCode.addStatement("int __h = __hashCode")
+                  .beginControlFlow("if (__h == 0)")
+                  .addCode(hashCodeImpl.add(";\n").build())
+                  .addStatement("__hashCode = __h")
+                  .endControlFlow()
+                  .addStatement("return __h");
+         }
+         impl.addMethod(hashCode.build());
+
+         // Like the hash code, the string form is computed at most once per thread and then
+         // cached, using the racy single-check idiom.
+         MethodSpec.Builder toString = MethodSpec.methodBuilder("toString")
+               .addAnnotation(Override.class)
+               .addModifiers(Modifier.PUBLIC)
+               .returns(String.class);
+         MethodSpec.Builder appendTo = MethodSpec.methodBuilder("appendTo")
+               .returns(StringBuilder.class)
+               .addParameter(StringBuilder.class, "sb");
+         // Other outputs are written directly, too, but without caching the string form, since
+         // that would require creating it.
+         MethodSpec.Builder appendToAppendable = MethodSpec.methodBuilder("appendTo")
+               .returns(Appendable.class)
+               .addParameter(Appendable.class, "out")
+               .addException(IOException.class);
+         if (annotation.members().isEmpty()) {
+            toString.addStatement("return $S", toStringPrefix + ")");
+            appendTo.addStatement("return sb.append($S)", toStringPrefix + ")");
+            appendToAppendable.addStatement("return out.append($S)", toStringPrefix + ")");
+         } else {
+            impl.addField(String.class, "__toString", Modifier.PRIVATE);
+            toString.addStatement("String __str = __toString")
+                  .beginControlFlow("if (__str == null)")
+                  .addStatement("__str = appendTo(new StringBuilder($L)).toString()",
+                        toStringLength)
+                  .addStatement("__toString = __str")
+                  .endControlFlow()
+                  .addStatement("return __str");
+            appendTo.addStatement("String __str = __toString")
+                  .beginControlFlow("if (__str != null)")
+                  .addStatement("return sb.append(__str)")
+                  .endControlFlow()
+                  .addCode(toStringImpl.build())
+                  .addStatement("return sb.append(')')");
+            appendToAppendable.addStatement("String __str = __toString")
+                  .beginControlFlow("if (__str != null)")
+                  .addStatement("return out.append(__str)")
+                  .endControlFlow()
+                  .addCode(appendableToStringImpl.build())
+                  .addStatement("return out.append(')')");
+         }
+         impl.addMethod(toString.build());
+         impl.addMethod(appendTo.build());
+         impl.addMethod(appendToAppendable.build());
+
+         impl.addMethod(MethodSpec.constructorBuilder()
+               .addParameter(builderType, "b")
+               .addCode(implCtorInitializer.build())
+               .build());
+
+         if (!annotation.members().isEmpty()) {
+            // also a constructor that accepts values that have already been validated (and
+            // copied, if necessary)
+            MethodSpec.Builder ctor = MethodSpec.constructorBuilder();
+            for (Member member : annotation.members()) {
+               ctor.addParameter(member.type(), member.name())
+                     .addStatement("this.$L = $L", member.name(), member.name());
+            }
+            impl.addMethod(ctor.build());
+         }
+      }
+
+      /**
+       * Generates static methods on the builder that append the string form of an annotation to
+       * a buffer or other output. For instances of the implementation class, these write to the
+       * buffer directly (or use the cached string form), instead of creating a new string.
+       */
+      private void generateAppendTo() {
+         builder.addMethod(MethodSpec.methodBuilder("appendTo")
+               .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+               .returns(StringBuilder.class)
+               .addParameter(annotationType, "a")
+               .addParameter(StringBuilder.class, "sb")
+               .beginControlFlow("if (a instanceof $L$L)", annotationName, IMPL_NAME_SUFFIX)
+               .addStatement("return (($L$L) a).appendTo(sb)", annotationName, IMPL_NAME_SUFFIX)
+               .endControlFlow()
+               .addStatement("return sb.append(a.toString())")
+               .addJavadoc("Appends the string form of the given annotation to the given buffer.\n"
+                     + "This is the same as appending the result of its {@code toString()}\n"
+                     + "method. But if the annotation was created by a builder, it is written\n"
+                     + "directly to the buffer, without first creating a string.\n"
+                     + "\n"
+                     + "@param a an annotation\n"
+                     + "@param sb the buffer to which the annotation is appended\n"
+                     + "@return the given buffer\n")
+               .build());
+         builder.addMethod(MethodSpec.methodBuilder("appendTo")
+               .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+               .returns(Appendable.class)
+               .addParameter(annotationType, "a")
+               .addParameter(Appendable.class, "out")
+               .addException(IOException.class)
+               .beginControlFlow("if (out instanceof $T)", StringBuilder.class)
+               .addStatement("return appendTo(a, ($T) out)", StringBuilder.class)
+               .endControlFlow()
+               .beginControlFlow("if (a instanceof $L$L)", annotationName, IMPL_NAME_SUFFIX)
+               .addStatement("return (($L$L) a).appendTo(out)", annotationName, IMPL_NAME_SUFFIX)
+               .endControlFlow()
+               .addStatement("return out.append(a.toString())")
+               .addJavadoc("Appends the string form of the given annotation to the given output.\n"
+                     + "This is the same as appending the result of its {@code toString()}\n"
+                     + "method. But if the output is a {@link StringBuilder}, or if the\n"
+                     + "annotation was created by a builder, it is written directly to the\n"
+                     + "output, without first creating a string.\n"
+                     + "\n"
+                     + "@param a an annotation\n"
+                     + "@param out the output to which the annotation is appended\n"
+                     + "@return the given output\n"
+                     + "@throws IOException if writing to the output fails\n")
+               .build());
+      }
+
+      /**
+       * Generates a static factory method on the builder that creates an annotation from values
+       * for all of its members, without creating a builder. It is named {@code of}, unless the
+       * annotation has a member with that name, in which case it is named {@code newInstance}.
+       */
+      private void generateFactory() {
+         String name = "of";
+         for (Member member : annotation.members()) {
+            if (member.name().equals(name)) {
+               name = "newInstance";
+               break;
+            }
+         }
+         MethodSpec.Builder factory = MethodSpec.methodBuilder(name)
+               .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+               .returns(annotationType)
+               .addJavadoc("Creates an instance of {@link $T} annotation using the given values.\n"
+                     + "This is equivalent to using a builder to set every field and then\n"
+                     + "building it, but is more efficient.\n", annotationType);
+         if (annotation.members().isEmpty()) {
+            builder.addMethod(factory
+                  .addJavadoc("\n@return an annotation instance")
+                  .addStatement("return $L", DEFAULT_INSTANCE)
+                  .build());
+            return;
+         }
+         factory.addJavadoc("\n");
+         CodeBlock.Builder args = CodeBlock.builder();
+         boolean first = true;
+         for (Member member : annotation.members()) {
+            String memberName = member.name();
+            TypeName memberType = member.type();
+            factory.addParameter(memberType, memberName)
+                  .addJavadoc("@param $L the value for the {@link $T#$L() $L} field\n",
+                        memberName, annotationType, memberName, memberName);
+            if (first) {
+               first = false;
+            } else {
+               args.add(", ");
+            }
+            if (memberType.isPrimitive()) {
+               args.add("$L", memberName);
+               continue;
+            }
+            factory.beginControlFlow("if ($L == null)", memberName)
+                  .addStatement("throw new $T($S)", NullPointerException.class, memberName)
+                  .endControlFlow();
+            if (member.isArray()) {
+               // defensive copy and then validate incoming values
+               String emptyName = emptyConstant(memberName);
+               factory.addStatement("$T __tmp$L = $L.length == 0 ? $L : $L.clone()", memberType,
+                     memberName, memberName, emptyName, memberName);
+               if (!member.valueType().isPrimitive()) {
+                  factory.beginControlFlow("for ($T __item : __tmp$L)", member.valueType(),
+                              memberName)
+                        .beginControlFlow("if (__item == null)")
+                        .addStatement("throw new $T($S)", NullPointerException.class, memberName)
+                        .endControlFlow()
+                        .endControlFlow();
+               }
+               if (valuePool) {
+                  args.add("$T.intern(__tmp$L)", ValuePool.class, memberName);
+               } else {
+                  args.add("__tmp$L", memberName);
+               }
+            } else if (valuePool && memberType.equals(ClassName.get(String.class))) {
+               args.add("$T.intern($L)", ValuePool.class, memberName);
+            } else {
+               args.add("$L", memberName);
+            }
+         }
+         builder.addMethod(factory
+               .addJavadoc("@return an annotation instance\n"
+                     + "@throws NullPointerException if any of the given values is null")
+               .addStatement("return new $L$L($L)", annotationName, IMPL_NAME_SUFFIX, args.build())
+               .build());
+      }
+
+      /**
+       * Returns the arguments for the constructor of the implementation class that accepts all
+       * values. The arguments are the fields of the implementation class in a variable named
+       * {@code __impl}, except for the given member, whose argument is the given expression.
+       */
+      private CodeBlock implArgs(String replacedMember, CodeBlock replacement) {
+         CodeBlock.Builder args = CodeBlock.builder();
+         boolean first = true;
+         for (Member member : annotation.members()) {
+            if (first) {
+               first = false;
+            } else {
+               args.add(", ");
+            }
+            if (member.name().equals(replacedMember)) {
+               args.add(replacement);
+            } else {
+               args.add("__impl.$L", member.name());
+            }
+         }
+         return args.build();
+      }
+
+      /**
+       * Returns the fast path of the {@code equals} method, for when the other object is also an
+       * instance of the implementation class. It compares fields directly, instead of through
+       * accessors that clone arrays, and uses cached hash codes, if both have been computed, to
+       * quickly reject unequal instances.
+       */
+      private CodeBlock implEquals() {
+         CodeBlock.Builder block = CodeBlock.builder()
+               .beginControlFlow("if (o instanceof $L$L)", annotationName, IMPL_NAME_SUFFIX);
+         if (annotation.members().isEmpty()) {
+            return block.addStatement("return true").endControlFlow().build();
+         }
+         return block
+               .addStatement("$L$L other = ($L$L) o", annotationName, IMPL_NAME_SUFFIX,
+                     annotationName, IMPL_NAME_SUFFIX)
+               .addStatement("int __h = __hashCode, __otherH = other.__hashCode")
+               .addStatement("if (__h != 0 && __otherH != 0 && __h != __otherH) return false")
+               .add(implEqualsImpl.add(";\n").build())
+               .endControlFlow()
+               .build();
+      }
+
+      /**
+       * Processes a single method on the annotation. Each method results in fields and methods on
+       * the generated builder and implementation class.
+       */
+      private class MethodProcessor {
+         private final Member method;
+         private final String methodName;
+         private final TypeName methodType;
+         private final Value defaultValue;
+
+         // can vary from methodType, e.g. boxed instead of primitive
+         private final TypeName builderFieldType;
+
+         // non-null if method type is an array
+         private final TypeName componentType;
+
+         // non-null if method type is an array: the number of elements used in the builder's
+         // array and the shared empty array
+         private final String sizeName;
+         private final String emptyName;
+
+         // non-null if method type is an array with no default value: whether the field is set
+         private final String setName;
+
+         MethodProcessor(Member method) {
+            this.method = method;
+
+            // We use the annotation method name extensively. Accessor and setter methods in the
+            // implementation and builder classes, as well as associated fields and method
+            // parameters, are all named after it.
+            this.methodName = method.name();
+
+            this.methodType = method.type();
+            this.defaultValue = method.defaultValue();
+
+            if (method.isArray()) {
+               this.componentType = method.valueType();
+               // the builder's array can have extra capacity, for efficiently adding elements, so
+               // its size is tracked separately
+               builderFieldType = methodType;
+               this.sizeName = "__" + methodName + "Size";
+               this.emptyName = emptyConstant(methodName);
+               // A required array's field is never null, so it keeps its capacity when the builder
+               // is cleared. Whether it has been set is tracked separately.
+               this.setName = defaultValue == null ? "__" + methodName + "Set" : null;
+            } else {
+               this.componentType = null;
+               this.sizeName = null;
+               this.emptyName = null;
+               this.setName = null;
+               if (defaultValue == null) {
+                  // primitive values without a default are represented as boxed types
+                  // (null means never set)
+                  builderFieldType = methodType.box();
+               } else {
+                  builderFieldType = methodType;
+               }
+            }
+         }
+
+         /** Generates code related to the current annotation method. */
+         public void process() {
+            generateBuilderCode();
+            generateImplCode();
+         }
+
+         /**
+          * Emits a statement that records that the builder's values may have changed since it
+          * last built an annotation, so it can't return that instance again.
+          */
+         private void clearBuilt(MethodSpec.Builder mutator) {
+            mutator.addStatement("this.__built = null");
+         }
+
+         /**
+          * Returns statements that unset the current method's field in the builder, which is how
+          * fields without a default start out.
+          */
+         private CodeBlock unset() {
+            CodeBlock.Builder block = CodeBlock.builder();
+            if (isArray()) {
+               block.addStatement("this.$L = $L", methodName, emptyName)
+                     .addStatement("this.$L = 0", sizeName)
+                     .addStatement("this.$L = false", setName);
+            } else {
+               block.addStatement("this.$L = null", methodName);
+            }
+            return block.build();
+         }
+
+         /**
+          * Emits a statement that records that the current method's field has been set, if it is an
+          * array without a default value. (Other fields without a default are set when non-null.)
+          */
+         private void markSet(MethodSpec.Builder mutator) {
+            if (setName != null) {
+               mutator.addStatement("this.$L = true", setName);
+            }
+         }
+
+         /** Returns true if the current method's return type is an array. */
+         private boolean isArray() {
+            return method.isArray();
+         }
+
+         /**
+          * Returns true if the current method's return type is an array whose component type is
+          * generic. Such arrays must be created using the raw component type.
+          */
+         private boolean isGenericArray() {
+            return isArray() && !method.rawValueType().equals(componentType);
+         }
+
+         private void generateBuilderCode() {
+            // Field declaration
+            builder.addField(
+                  FieldSpec.builder(builderFieldType, methodName, Modifier.PRIVATE).build());
+            if (isArray()) {
+               builder.addField(FieldSpec.builder(int.class, sizeName, Modifier.PRIVATE).build());
+               if (setName != null) {
+                  builder.addField(
+                        FieldSpec.builder(boolean.class, setName, Modifier.PRIVATE).build());
+               }
+
+               // Empty arrays can't be modified, so all builders and instances share one
+               FieldSpec.Builder empty = FieldSpec.builder(methodType, emptyName,
+                     Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL);
+               if (isGenericArray()) {
+                  // must use raw array type and then unchecked-cast
+                  empty.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                              .addMember("value", "$S", "unchecked")
+                              .build())
+                        .initializer("($T) new $T[0]", methodType, method.rawValueType());
+               } else {
+                  empty.initializer("new $T[0]", componentType);
+               }
+               builder.addField(empty.build());
+            }
+
+            // Field initialization in default constructor (also used to reset the builder)
+            CodeBlock.Builder defaultInitializer = CodeBlock.builder();
+            if (defaultValue != null) {
+               if (defaultValue.constant() != null) {
+                  // literals are cheap, so they are used directly
+                  defaultInitializer.add("this.$L = ", methodName);
+                  asLiteral(defaultValue, defaultInitializer);
+                  defaultInitializer.add(";\n");
+               } else if (isArray() && defaultValue.elements().isEmpty()) {
+                  defaultInitializer.addStatement("this.$L = $L", methodName, emptyName);
+               } else {
+                  // Arrays and nested annotations are created once and shared by all builders.
+                  // (Arrays are safe to share since the builder never modifies elements of an
+                  // array it didn't create.)
+                  String defaultName = defaultConstant(methodName);
+                  CodeBlock.Builder initializer = CodeBlock.builder();
+                  asLiteral(defaultValue, initializer);
+                  FieldSpec.Builder defaultField = FieldSpec.builder(methodType, defaultName,
+                        Modifier.PRIVATE, Modifier.STATIC, Modifier.FINAL)
+                        .initializer(initializer.build());
+                  if (isGenericArray()) {
+                     defaultField.addAnnotation(AnnotationSpec.builder(SuppressWarnings.class)
+                           .addMember("value", "$S", "unchecked")
+                           .build());
+                  }
+                  builder.addField(defaultField.build());
+                  defaultInitializer.addStatement("this.$L = $L", methodName, defaultName);
+               }
+               if (isArray()) {
+                  defaultInitializer.addStatement("this.$L = this.$L.length", sizeName,
+                        methodName);
+               }
+            }
+            if (setName != null) {
+               // a required array starts out unset, but its field is never null
+               defaultInitializer.addStatement("this.$L = $L", methodName, emptyName);
+            }
+            builderDefaultCtorInitializer.add(defaultInitializer.build());
+            if (defaultValue == null) {
+               // unset, which is how fields without a default start out in a new builder
+               resetImpl.add(unset());
+            } else {
+               resetImpl.add(defaultInitializer.build());
+            }
+            if (isArray()) {
+               // The array can only be re-used if it isn't shared. A full array may be shared
+               // (build() shares it, and so may setters and the copy constructor), but one with
+               // room to spare was grown by this builder and is never shared.
+               clearImpl.beginControlFlow("if (this.$L == this.$L.length)", sizeName, methodName)
+                     .addStatement("this.$L = $L", methodName, emptyName);
+               if (!componentType.isPrimitive()) {
+                  // don't retain references to the cleared elements
+                  clearImpl.nextControlFlow("else")
+                        .addStatement("$T.fill(this.$L, 0, this.$L, null)", Arrays.class,
+                              methodName, sizeName);
+               }
+               clearImpl.endControlFlow()
+                     .addStatement("this.$L = 0", sizeName);
+               if (setName != null) {
+                  // a required array becomes unset, so it must be set again, but its storage is
+                  // still re-used when elements are added
+                  clearImpl.addStatement("this.$L = false", setName);
+               }
+            } else if (defaultValue == null) {
+               // fields without a default become unset, so they must be set again
+               clearImpl.add(unset());
+            } else {
+               clearImpl.add(defaultInitializer.build());
+            }
+
+            // Setter method(s)
+            generateSetters();
+            if (isArray()) {
+               generateBulkAdders();
+            }
+            generateWither();
+
+            // Code block to validate that required elements were set in build() method
+            if (defaultValue == null) {
+               buildValidate.beginControlFlow(setName != null ? "if (!$L)" : "if ($L == null)",
+                     setName != null ? setName : methodName)
+                     .addStatement("throw new $T($S)", IllegalStateException.class,
+                           methodName + " cannot be null")
+                     .endControlFlow();
+            }
+
+            // Code block to initialize field in copy constructor from an instance of the
+            // implementation class (variable __impl)
+            builderImplCopyCtorInitializer.addStatement("this.$L = __impl.$L", methodName,
+                  methodName);
+            if (isArray()) {
+               builderImplCopyCtorInitializer.addStatement("this.$L = __impl.$L.length", sizeName,
+                     methodName);
+               if (setName != null) {
+                  builderImplCopyCtorInitializer.addStatement("this.$L = true", setName);
+               }
+            }
+
+            // Code block to initialize field in copy constructor
+            // (variable a is an instance of the annotation)
+            if (methodType.isPrimitive()) {
+               builderCopyCtorInitializer.addStatement("this.$L = a.$L()", methodName, methodName);
+            } else {
+               // For reference types, we perform a null check. Annotations aren't ever supposed to
+               // return null values, so this is just in case we encounter a misbehaving
+               // implementation
+               // of the annotation interface
+               builderCopyCtorInitializer
+                     .addStatement("$T __tmp$L = a.$L()", methodType, methodName, methodName)
+                     .beginControlFlow("if (__tmp$L == null)", methodName)
+                     .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                     .endControlFlow();
+               if (isArray()) {
+                  // Accessors are supposed to return a copy, but an arbitrary implementation might
+                  // return an array it later modifies. Since the builder may share this array with
+                  // the annotations it builds (and with the value pool), it makes its own copy.
+                  // Only instances of the implementation class, which are known to be immutable,
+                  // can share their arrays (see above).
+                  builderCopyCtorInitializer.addStatement(
+                        "__tmp$L = __tmp$L.length == 0 ? $L : __tmp$L.clone()", methodName,
+                        methodName, emptyName, methodName);
+                  if (!componentType.isPrimitive()) {
+                     // also null-check each element of reference array (after copying, so they
+                     // can't change)
+                     builderCopyCtorInitializer
+                           .beginControlFlow("for ($T __item : __tmp$L)", componentType,
+                                 methodName)
+                           .beginControlFlow("if (__item == null)")
+                           .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                           .endControlFlow()
+                           .endControlFlow();
+                  }
+                  builderCopyCtorInitializer
+                        .addStatement("this.$L = __tmp$L", methodName, methodName)
+                        .addStatement("this.$L = __tmp$L.length", sizeName, methodName);
+                  if (setName != null) {
+                     builderCopyCtorInitializer.addStatement("this.$L = true", setName);
+                  }
+               } else {
+                  builderCopyCtorInitializer.addStatement("this.$L = __tmp$L", methodName,
+                        methodName);
+               }
+            }
+         }
+
+         /**
+          * Generates a static method on the builder that returns a copy of a given annotation with
+          * just the value of the current method changed. If the given annotation is an instance of
+          * the implementation class, the copy is created directly and shares all other values with
+          * it. Otherwise, this falls back to using a builder.
+          */
+         private void generateWither() {
+            // the annotation parameter is named "a", unless that's the name of the current method
+            String a = methodName.equals("a") ? "annotation" : "a";
+            MethodSpec.Builder wither = MethodSpec.methodBuilder("with" + initCap(methodName))
+                  .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                  .returns(annotationType)
+                  .addParameter(annotationType, a)
+                  .addParameter(methodType, methodName)
+                  .addJavadoc("Returns a copy of the given annotation with a new value for the "
+                        + "{@link $T#$L() $L} field.\nIf the given annotation was created by a "
+                        + "builder, the copy shares all other values\nwith it.", annotationType,
+                        methodName, methodName);
+            if (isArray()) {
+               wither.varargs();
+            }
+            wither.beginControlFlow("if ($L instanceof $L$L)", a, annotationName,
+                  IMPL_NAME_SUFFIX)
+                  .addStatement("$L$L __impl = ($L$L) $L", annotationName, IMPL_NAME_SUFFIX,
+                        annotationName, IMPL_NAME_SUFFIX, a);
+            CodeBlock value = CodeBlock.builder().add("$L", methodName).build();
+            if (isArray()) {
+               // defensive copy and then validate incoming values
+               wither.addStatement("$T __tmp$L = $L.length == 0 ? $L : $L.clone()", methodType,
+                     methodName, methodName, emptyName, methodName);
+               if (!componentType.isPrimitive()) {
+                  wither.beginControlFlow("for ($T __item : __tmp$L)", componentType, methodName)
+                        .beginControlFlow("if (__item == null)")
+                        .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                        .endControlFlow()
+                        .endControlFlow();
+               }
+               if (valuePool) {
+                  value = CodeBlock.builder()
+                        .add("$T.intern(__tmp$L)", ValuePool.class, methodName)
+                        .build();
+               } else {
+                  value = CodeBlock.builder().add("__tmp$L", methodName).build();
+               }
+            } else {
+               if (!methodType.isPrimitive()) {
+                  wither.beginControlFlow("if ($L == null)", methodName)
+                        .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                        .endControlFlow();
+               }
+               if (valuePool && methodType.equals(ClassName.get(String.class))) {
+                  value = CodeBlock.builder()
+                        .add("$T.intern($L)", ValuePool.class, methodName)
+                        .build();
+               }
+            }
+            wither.addStatement("return new $L$L($L)", annotationName, IMPL_NAME_SUFFIX,
+                        implArgs(methodName, value))
+                  .endControlFlow()
+                  .addStatement("return new $T($L).$L($L).build()", builderType, a, methodName,
+                        methodName);
+            builder.addMethod(wither.build());
+         }
+
+         private void generateSetters() {
+            // All fields get a simple setter method
+            MethodSpec.Builder methodBuilder =
+                  MethodSpec.methodBuilder(methodName)
+                        .addModifiers(Modifier.PUBLIC)
+                        .returns(builderType)
+                        .addParameter(methodType, methodName)
+                        .addJavadoc("Provides a value for the {@link $T#$L() $L} field.",
+                              annotationType, methodName, methodName);
+            if (isArray()) {
+               methodBuilder.varargs();
+               // defensive copy
+               methodBuilder.addStatement("$T __tmp$L = $L.clone()", methodType, methodName,
+                     methodName);
+               if (!componentType.isPrimitive()) {
+                  // validate incoming values (after copying, so they can't change)
+                  methodBuilder.beginControlFlow("for ($T __item : __tmp$L)", componentType,
+                              methodName)
+                        .beginControlFlow("if (__item == null)")
+                        .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                        .endControlFlow()
+                        .endControlFlow();
+               }
+               methodBuilder.addStatement("this.$L = __tmp$L", methodName, methodName)
+                     .addStatement("this.$L = __tmp$L.length", sizeName, methodName);
+               markSet(methodBuilder);
+            } else {
+               if (!methodType.isPrimitive()) {
+                  methodBuilder.beginControlFlow("if ($L == null)", methodName)
+                        .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                        .endControlFlow();
+               }
+               methodBuilder.addStatement("this.$L = $L", methodName, methodName);
+            }
+            clearBuilt(methodBuilder);
+            methodBuilder.addStatement("return this");
+            builder.addMethod(methodBuilder.build());
+
+            // List types have additional methods:
+
+            if (isArray()) {
+               // Overload to accept collection parameter (vs. array parameter)
+               TypeName boxedComponent = componentType.box();
+               TypeName overloadParamType =
+                     ParameterizedTypeName.get(ClassName.get(Collection.class),
+                              WildcardTypeName.subtypeOf(boxedComponent));
+               methodBuilder = MethodSpec.methodBuilder(methodName)
+                     .addModifiers(Modifier.PUBLIC)
+                     .returns(builderType)
+                     .addParameter(overloadParamType, methodName)
+                     .addJavadoc("Provides a value for the {@link $T#$L() $L} field using a "
+                           + "collection instead of an array.", annotationType, methodName,
+                           methodName);
+               if (componentType.isPrimitive()) {
+                  // copy and unbox incoming values
+                  methodBuilder.addStatement("$T __tmp$L = new $T[$L.size()]", methodType,
+                              methodName, componentType, methodName)
+                        .addStatement("int __index = 0")
+                        .beginControlFlow("for ($T __item : $L)", boxedComponent, methodName)
+                        .beginControlFlow("if (__item == null)")
+                        .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                        .endControlFlow()
+                        .addStatement("__tmp$L[__index++] = __item", methodName)
+                        .endControlFlow();
+               } else {
+                  // copy and then validate incoming values
+                  methodBuilder.addStatement("$T __tmp$L = $L.toArray($L)", methodType,
+                              methodName, methodName, emptyName)
+                        .beginControlFlow("for ($T __item : __tmp$L)", componentType, methodName)
+                        .beginControlFlow("if (__item == null)")
+                        .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                        .endControlFlow()
+                        .endControlFlow();
+               }
+               methodBuilder.addStatement("this.$L = __tmp$L", methodName, methodName)
+                     .addStatement("this.$L = __tmp$L.length", sizeName, methodName);
+               markSet(methodBuilder);
+               clearBuilt(methodBuilder);
+               builder.addMethod(methodBuilder.addStatement("return this").build());
+
+               // Method for incrementally adding one value at a time
+               MethodSpec.Builder addMethod = MethodSpec.methodBuilder("add" + initCap(methodName))
+                     .addModifiers(Modifier.PUBLIC)
+                     .returns(builderType)
+                     .addParameter(componentType, methodName)
+                     .addJavadoc("Appends an element to the array value for the {@link $T#$L() $L} "
+                           + "field.", annotationType, methodName, methodName);
+               if (!componentType.isPrimitive()) {
+                  addMethod.beginControlFlow("if ($L == null)", methodName)
+                        .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                        .endControlFlow();
+               }
+               // Grow the array when full. This is also what makes it safe for the builder to
+               // use arrays it did not create (like the shared empty array or one returned by an
+               // annotation): elements are only ever written beyond the used size.
+               addMethod.beginControlFlow("if (this.$L == this.$L.length)", sizeName, methodName)
+                     .addStatement("this.$L = $T.copyOf(this.$L, $T.max(4, this.$L * 2))",
+                           methodName, Arrays.class, methodName, Math.class, sizeName)
+                     .endControlFlow()
+                     .addStatement("this.$L[this.$L++] = $L", methodName, sizeName, methodName);
+               markSet(addMethod);
+               clearBuilt(addMethod);
+               addMethod.addStatement("return this");
+               builder.addMethod(addMethod.build());
+            }
+         }
+
+         /**
+          * Generates methods for efficiently adding many elements to the current method's array
+          * value at once: a method that ensures the array has room for some number of elements and
+          * methods that append all elements from an array, a range of an array, or a collection.
+          * These each grow the array at most once and copy the given elements in bulk.
+          */
+         private void generateBulkAdders() {
+            String capName = initCap(methodName);
+            String ensureName = "ensure" + capName + "Capacity";
+            String addAllName = "addAll" + capName;
+
+            // Grows the array if necessary. Growing it is a copy, which is also what makes it
+            // safe to do this when the array is shared: elements are only ever written beyond the
+            // used size, and a shared array has no room beyond that.
+            MethodSpec.Builder ensure = MethodSpec.methodBuilder(ensureName)
+                  .addModifiers(Modifier.PUBLIC)
+                  .returns(builderType)
+                  .addParameter(int.class, "minCapacity")
+                  .addJavadoc("Ensures that the array value for the {@link $T#$L() $L} field has room "
+                        + "for at least\nthe given number of elements, so they can be added without "
+                        + "re-allocating it.\n", annotationType, methodName, methodName);
+            if (defaultValue == null) {
+               ensure.addJavadoc("If the field has not been set, it is set to an empty array.\n");
+            }
+            ensure.addJavadoc("\n@param minCapacity the minimum number of elements\n"
+                        + "@return this builder")
+                  .beginControlFlow("if (minCapacity > this.$L.length)", methodName)
+                  .addStatement("this.$L = $T.copyOf(this.$L, $T.max(minCapacity, this.$L * 2))",
+                        methodName, Arrays.class, methodName, Math.class, sizeName)
+                  .endControlFlow();
+            markSet(ensure);
+            ensure.addStatement("return this");
+            builder.addMethod(ensure.build());
+
+            // Appends a range of an array; the other overload for arrays delegates to this one.
+            // The range parameters are renamed if the current method has the same name.
+            String offset = methodName.equals("offset") ? "__offset" : "offset";
+            String length = methodName.equals("length") ? "__length" : "length";
+            MethodSpec.Builder addRange = MethodSpec.methodBuilder(addAllName)
+                  .addModifiers(Modifier.PUBLIC)
+                  .returns(builderType)
+                  .addParameter(methodType, methodName)
+                  .addParameter(int.class, offset)
+                  .addParameter(int.class, length)
+                  .addJavadoc("Appends a range of elements from the given array to the array value "
+                        + "for the\n{@link $T#$L() $L} field.\n"
+                        + "\n"
+                        + "@param $L the array of elements to append\n"
+                        + "@param $L the index of the first element to append\n"
+                        + "@param $L the number of elements to append\n"
+                        + "@return this builder\n"
+                        + "@throws IndexOutOfBoundsException if the offset or length is negative or "
+                        + "if the range\nextends beyond the end of the given array\n",
+                        annotationType, methodName, methodName, methodName, offset, length)
+                  .beginControlFlow("if ($L < 0 || $L < 0 || $L > $L.length - $L)", offset, length,
+                        offset, methodName, length)
+                  .addStatement("throw new $T()", IndexOutOfBoundsException.class)
+                  .endControlFlow();
+            // Elements are copied into a local array, which is only stored in the field once they
+            // have all been validated. So a call that fails leaves the value unchanged (even if it
+            // was unset). Writing past the used size of the field's array is fine, as elsewhere.
+            addLocalArray(addRange);
+            addRange.addStatement("int __end = __size + $L", length)
+                  .beginControlFlow("if (__end > __array.length)")
+                  .addStatement("__array = $T.copyOf(__array, $T.max(__end, __size * 2))",
+                        Arrays.class, Math.class)
+                  .endControlFlow()
+                  .addStatement("$T.arraycopy($L, $L, __array, __size, $L)",
+                        System.class, methodName, offset, length);
+            if (!componentType.isPrimitive()) {
+               // validate the copied elements (so they can't change) before they are in use
+               addRange.beginControlFlow("for (int __i = __size; __i < __end; __i++)")
+                     .beginControlFlow("if (__array[__i] == null)")
+                     .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                     .endControlFlow()
+                     .endControlFlow();
+            }
+            addRange.addStatement("this.$L = __array", methodName)
+                  .addStatement("this.$L = __end", sizeName);
+            markSet(addRange);
+            clearBuilt(addRange);
+            builder.addMethod(addRange.addStatement("return this").build());
+
+            builder.addMethod(MethodSpec.methodBuilder(addAllName)
+                  .addModifiers(Modifier.PUBLIC)
+                  .returns(builderType)
+                  .addParameter(methodType, methodName)
+                  .varargs()
+                  .addJavadoc("Appends all of the given elements to the array value for the "
+                        + "{@link $T#$L() $L} field.\n"
+                        + "\n"
+                        + "@param $L the elements to append\n"
+                        + "@return this builder\n", annotationType, methodName, methodName,
+                        methodName)
+                  .addStatement("return $L($L, 0, $L.length)", addAllName, methodName, methodName)
+                  .build());
+
+            // Appends a collection, also using a local array until all elements are validated. The
+            // collection's size is only a hint, in case it changes concurrently, so the array is
+            // still grown if it runs out of room.
+            TypeName boxedComponent = componentType.box();
+            TypeName collectionType = ParameterizedTypeName.get(ClassName.get(Collection.class),
+                  WildcardTypeName.subtypeOf(boxedComponent));
+            MethodSpec.Builder addCollection = MethodSpec.methodBuilder(addAllName)
+                  .addModifiers(Modifier.PUBLIC)
+                  .returns(builderType)
+                  .addParameter(collectionType, methodName)
+                  .addJavadoc("Appends all elements of the given collection to the array value for "
+                        + "the\n{@link $T#$L() $L} field.\n"
+                        + "\n"
+                        + "@param $L the elements to append\n"
+                        + "@return this builder\n", annotationType, methodName, methodName,
+                        methodName);
+            addLocalArray(addCollection);
+            addCollection.addStatement("int __needed = __size + $L.size()", methodName)
+                  .beginControlFlow("if (__needed > __array.length)")
+                  .addStatement("__array = $T.copyOf(__array, $T.max(__needed, __size * 2))",
+                        Arrays.class, Math.class)
+                  .endControlFlow()
+                  .addStatement("int __index = __size")
+                  .beginControlFlow("for ($T __item : $L)", boxedComponent, methodName)
+                  .beginControlFlow("if (__item == null)")
+                  .addStatement("throw new $T($S)", NullPointerException.class, methodName)
+                  .endControlFlow()
+                  .beginControlFlow("if (__index == __array.length)")
+                  .addStatement("__array = $T.copyOf(__array, $T.max(4, __index * 2))",
+                        Arrays.class, Math.class)
+                  .endControlFlow()
+                  .addStatement("__array[__index++] = __item")
+                  .endControlFlow()
+                  .addStatement("this.$L = __array", methodName)
+                  .addStatement("this.$L = __index", sizeName);
+            markSet(addCollection);
+            clearBuilt(addCollection);
+            builder.addMethod(addCollection.addStatement("return this").build());
+         }
+
+         /**
+          * Emits statements that declare local variables {@code __array} and {@code __size}, with
+          * the builder's array for the current method and the number of elements used.
+          */
+         private void addLocalArray(MethodSpec.Builder method) {
+            method.addStatement("$T __array = this.$L", methodType, methodName)
+                  .addStatement("int __size = this.$L", sizeName);
+         }
+
+         private void generateImplCode() {
+            // Field declaration
+            impl.addField(methodType, methodName, Modifier.PRIVATE, Modifier.FINAL);
+
+            // Accessor method (implements annotation interface)
+            MethodSpec.Builder accessor = MethodSpec.methodBuilder(methodName)
+                  .addAnnotation(Override.class)
+                  .addModifiers(Modifier.PUBLIC)
+                  .returns(methodType);
+            if (isArray()) {
+               // empty arrays are shared since they can't be modified
+               accessor.addStatement("return $L.length == 0 ? $L : $L.clone()", methodName,
+                     methodName, methodName);
+            } else {
+               accessor.addStatement("return $L", methodName);
+            }
+            impl.addMethod(accessor.build());
+
+            // Code block to initialize field in implementation class's constructor
+            // (variable b is a builder)
+            if (!isArray()) {
+               if (valuePool && methodType.equals(ClassName.get(String.class))) {
+                  implCtorInitializer.addStatement("this.$L = $T.intern(b.$L)", methodName,
+                        ValuePool.class, methodName);
+               } else {
+                  implCtorInitializer.addStatement("this.$L = b.$L", methodName, methodName);
+               }
+            } else {
+               // The builder only writes elements beyond its size, so an array that it has filled
+               // will never change and can be shared. Otherwise, it is copied. (Either way, with
+               // a value pool, an equal array that was already pooled is used instead.)
+               implCtorInitializer.add("this.$L = b.$L == 0 ? $L : ", methodName, sizeName,
+                     emptyName);
+               if (valuePool) {
+                  implCtorInitializer.add("$T.intern(", ValuePool.class);
+               }
+               implCtorInitializer.add("b.$L == b.$L.length ? b.$L : $T.copyOf(b.$L, b.$L)",
+                     sizeName, methodName, methodName, Arrays.class, methodName, sizeName);
+               if (valuePool) {
+                  implCtorInitializer.add(")");
+               }
+               implCtorInitializer.add(";\n");
+            }
+
+            if (isArray() && arrayViews) {
+               generateArrayViews();
+            }
+
+            // equals, hashCode, and toString:
+
+            // when the other instance is an implementation class, its field is accessed directly
+            // (which avoids cloning arrays); otherwise, its accessor method is invoked
+            EqualsAndHashCode.addEquals(methodName, methodType,
+                  CodeBlock.builder().add("other.$L()", methodName).build(), equalsImpl);
+            EqualsAndHashCode.addEquals(methodName, methodType,
+                  CodeBlock.builder().add("other.$L", methodName).build(), implEqualsImpl);
+            EqualsAndHashCode.addHashCode(methodName, methodType, hashCodeImpl);
+
+            String toStringName = toStringPrefix + methodName + "=";
+            toStringImpl.addStatement("sb.append($S)", toStringName);
+            appendableToStringImpl.addStatement("out.append($S)", toStringName);
+            toStringPrefix = ",";
+            // a rough guess at the length of the value; the buffer grows if it's longer
+            toStringLength += toStringName.length() + (isArray() ? 64 : 16);
+            addToString(methodName, methodType, method.valueKind(), false, toStringImpl);
+            addToString(methodName, methodType, method.valueKind(), true, appendableToStringImpl);
+         }
+
+         /**
+          * Generates static methods on the builder that provide access to the array value of an
+          * annotation. When the annotation is an instance of the implementation class, these read
+          * its field directly instead of cloning it.
+          */
+         private void generateArrayViews() {
+            CodeBlock array = CodeBlock.builder()
+                  .add("a instanceof $L$L ? (($L$L) a).$L : a.$L()", annotationName,
+                        IMPL_NAME_SUFFIX, annotationName, IMPL_NAME_SUFFIX, methodName, methodName)
+                  .build();
+
+            builder.addMethod(MethodSpec.methodBuilder(methodName + "Length")
+                  .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                  .returns(int.class)
+                  .addParameter(annotationType, "a")
+                  .addStatement("return ($L).length", array)
+                  .addJavadoc("Returns the length of the {@link $T#$L() $L} field of the given "
+                        + "annotation.\nThis does not copy the array if the annotation was "
+                        + "created by a builder.", annotationType, methodName, methodName)
+                  .build());
+
+            builder.addMethod(MethodSpec.methodBuilder(methodName + "At")
+                  .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                  .returns(componentType)
+                  .addParameter(annotationType, "a")
+                  .addParameter(int.class, "index")
+                  .addStatement("return ($L)[index]", array)
+                  .addJavadoc("Returns an element of the {@link $T#$L() $L} field of the given "
+                        + "annotation.\nThis does not copy the array if the annotation was "
+                        + "created by a builder.", annotationType, methodName, methodName)
+                  .build());
+
+            TypeName boxedComponent = componentType.box();
+            MethodSpec.Builder view = MethodSpec.methodBuilder(methodName + "View")
+                  .addModifiers(Modifier.PUBLIC, Modifier.STATIC)
+                  .returns(ParameterizedTypeName.get(ClassName.get(List.class), boxedComponent))
+                  .addParameter(annotationType, "a")
+                  .addJavadoc("Returns an unmodifiable view of the {@link $T#$L() $L} field of "
+                        + "the given\nannotation. This does not copy the array if the annotation "
+                        + "was created by a builder.", annotationType, methodName, methodName);
+            if (componentType.isPrimitive()) {
+               view.addStatement("final $T __array = $L", methodType, array)
+                     .addStatement("return $L", TypeSpec.anonymousClassBuilder("")
+                           .superclass(ParameterizedTypeName.get(ClassName.get(AbstractList.class),
+                                 boxedComponent))
+                           .addMethod(MethodSpec.methodBuilder("get")
+                                 .addAnnotation(Override.class)
+                                 .addModifiers(Modifier.PUBLIC)
+                                 .returns(boxedComponent)
+                                 .addParameter(int.class, "index")
+                                 .addStatement("return __array[index]")
+                                 .build())
+                           .addMethod(MethodSpec.methodBuilder("size")
+                                 .addAnnotation(Override.class)
+                                 .addModifiers(Modifier.PUBLIC)
+                                 .returns(int.class)
+                                 .addStatement("return __array.length")
+                                 .build())
+                           .build());
+            } else {
+               view.addStatement("return $T.unmodifiableList($T.asList($L))", Collections.class,
+                     Arrays.class, array);
+            }
+            builder.addMethod(view.build());
+         }
+
+         private String initCap(String s) {
+            if (s.isEmpty() || Character.isUpperCase(s.charAt(0))) {
+               return s;
+            }
+            StringBuilder sb = new StringBuilder(s);
+            sb.setCharAt(0, Character.toUpperCase(s.charAt(0)));
+            return sb.toString();
+         }
+
+         /**
+          * Emits the given value to the given code block using a form suitable for constructing
+          * that value when executed.
+          */
+         private void asLiteral(Value v, CodeBlock.Builder block) {
+            asLiteral(v, block, false);
+         }
+
+         private void asLiteral(Value v, CodeBlock.Builder block, boolean acceptVarArgs) {
+            if (v.constant() != null) {
+
+               // Class tokens, enums, strings, and primitives
+               block.add(v.constant());
+
+            } else if (v.annotationType() != null) {
+
+               // Nested annotation (use a builder to instantiate)
+               block.add("new $T()", generatedClassName(v.annotationType()));
+               for (Map.Entry<String, Value> entry : v.annotationValues().entrySet()) {
+                  block.add(".$L(", entry.getKey());
+                  asLiteral(entry.getValue(), block, true);
+                  block.add(")");
+               }
+               block.add(".build()");
+
+            } else {
+
+               // Array
+               List<Value> list = v.elements();
+               TypeName componentType = v.componentType();
+               if (!acceptVarArgs) {
+                  // no var args? wrap the items in an array initializer
+                  if (componentType instanceof ParameterizedTypeName) {
+                     // must use raw array type and then unchecked-cast
+                     block.add("($T) new $T[] {", ArrayTypeName.of(componentType),
+                           ((ParameterizedTypeName) componentType).rawType);
+                  } else {
+                     block.add("new $T[] {", componentType);
+                  }
+               }
+               boolean first = true;
+               for (Value o : list) {
+                  if (first) {
+                     first = false;
+                  } else {
+                     block.add(",");
+                  }
+                  asLiteral(o, block);
+               }
+               if (!acceptVarArgs) {
+                  block.add("}");
+               }
+
+            }
+         }
+
+         /**
+          * Emits statements to the {@link #toString} method's implementation. These invoke methods
+          * on a {@link StringBuilder} variable named {@code sb} or, if {@code appendable} is true,
+          * on an {@link Appendable} variable named {@code out}.
+          *
+          * <p>The generated {@link #toString} method emits a string that is also a valid
+          * representation of the annotation in source code.
+          */
+         private void addToString(String variableName, TypeName type, ValueKind kind,
+               boolean appendable, CodeBlock.Builder toStringImpl) {
+            String out = appendable ? "out" : "sb";
+            if (type.equals(TypeName.CHAR)) {
+               toStringImpl.beginControlFlow("if ($L == '\\'')", variableName)
+                     .addStatement("$L.append(\"'\\\\''\")", out)
+                     .endControlFlow()
+                     .beginControlFlow("else")
+                     .addStatement("$L.append('\\'').append($L).append('\\'')", out,
+                           variableName)
+                     .endControlFlow();
+            } else if (type.isPrimitive()) {
+               if (appendable) {
+                  // Appendable only accepts characters
+                  toStringImpl.addStatement("out.append($T.valueOf($L))", String.class,
+                        variableName);
+               } else {
+                  toStringImpl.addStatement("sb.append($L)", variableName);
+               }
+            } else if (type instanceof ArrayTypeName) {
+               toStringImpl.addStatement("$L.append(\"{\")", out);
+               TypeName componentType = ((ArrayTypeName) type).componentType;
+               toStringImpl.beginControlFlow("for ($T i : $L)", componentType, variableName);
+               addToString("i", componentType, kind, appendable, toStringImpl);
+               toStringImpl.addStatement("$L.append(',')", out);
+               toStringImpl.endControlFlow();
+               toStringImpl.addStatement("$L.append(\"}\")", out);
+            } else {
+               switch (kind) {
+                  case ENUM:
+                     // the enum's type is known, so its name is a constant
+                     toStringImpl.addStatement("$L.append($S).append($L.name())", out, type + ".",
+                           variableName);
+                     break;
+                  case ANNOTATION:
+                     // nested annotations are written directly to the output, too
+                     toStringImpl.addStatement("$T.appendTo($L, $L)",
+                           generatedClassName((ClassName) type), variableName, out);
+                     break;
+                  case CLASS:
+                     toStringImpl.addStatement(
+                           "$L.append($L.getCanonicalName()).append(\".class\")", out,
+                           variableName);
+                     break;
+                  case STRING:
+                     // escape strings
+                     toStringImpl.addStatement(
+                           "$L.append('\"').append($L.replace(\"\\\"\", \"\\\\\\\"\")).append('\"')",
+                           out, variableName);
+                     break;
+                  default:
+                     throw new AssertionError("Unsupported type in annotation! " + type);
+               }
+            }
+         }
+      }
+   }
+}
@@ -0,0 +1,47 @@
+package com.bluegosling.artificer.internal;
+
+import com.squareup.javapoet.AnnotationSpec;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.JavaFile;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Generates one kind of class, like a builder or a bridge, for annotation types. Annotations are
+ * discovered and analyzed just once, by {@link ArtificerProcessor}, and then each generator that
+ * applies to an annotation produces its code from the same {@linkplain AnnotationModel model}.
+ *
+ * <p>Implementations must be stateless since they generate code concurrently for many annotation
+ * types.
+ */
+interface AnnotationGenerator {
+   /**
+    * Returns the meta-meta-annotation that selects annotations for this generator. Annotations
+    * that are (indirectly) marked with this meta-meta-annotation are processed by this generator,
+    * along with any annotations nested therein.
+    */
+   Class<? extends Annotation> metaMetaAnnotation();
+
+   /**
+    * Returns the name of the class that is generated for the given annotation type.
+    *
+    * @param annotation the name of an annotation type
+    * @return the name of the class generated for that type
+    */
+   ClassName generatedClassName(ClassName annotation);
+
+   /**
+    * Generates code for a single annotation that is (indirectly) marked with the
+    * meta-meta-annotation or that is nested inside of such an annotation.
+    *
+    * <p>This may be called concurrently from multiple threads. So implementations must only use
+    * the given model and must not use the processing environment.
+    *
+    * @param annotation a model of an annotation type
+    * @param generated the {@literal @}{@link javax.annotation.Generated} annotation with which the
+    *       generated class should be annotated
+    * @return the generated file, which must define the class named by
+    *       {@link #generatedClassName(ClassName)}
+    */
+   JavaFile generate(AnnotationModel annotation, AnnotationSpec generated);
+}
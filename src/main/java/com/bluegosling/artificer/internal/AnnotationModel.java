@@ -0,0 +1,322 @@
+package com.bluegosling.artificer.internal;
+
+import com.google.auto.common.MoreElements;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.squareup.javapoet.ClassName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.ParameterizedTypeName;
+import com.squareup.javapoet.TypeName;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+
+/**
+ * An immutable snapshot of an annotation type. This includes everything needed to generate code
+ * for the annotation, without any further use of the compiler's model APIs (e.g.
+ * {@link TypeElement}, {@link TypeMirror}, and {@link AnnotationValue}). Those APIs are not
+ * thread-safe, so a model must be created on the compiler's thread. But, once created, it can be
+ * freely used from other threads.
+ */
+final class AnnotationModel {
+   private static final Joiner ON_DOLLAR = Joiner.on('$');
+
+   /** The kinds of values an annotation method may return (or, for arrays, contain). */
+   enum ValueKind {
+      PRIMITIVE, STRING, CLASS, ENUM, ANNOTATION
+   }
+
+   private final ClassName type;
+   private final List<Member> members;
+
+   private AnnotationModel(ClassName type, List<Member> members) {
+      this.type = type;
+      this.members = members;
+   }
+
+   /**
+    * Creates a snapshot of the given annotation type. This must only be called from the compiler's
+    * thread.
+    *
+    * @param annotation an annotation type
+    * @param elements utility methods for operating on elements
+    * @return a model of the given annotation type
+    */
+   static AnnotationModel create(TypeElement annotation, Elements elements) {
+      ImmutableList.Builder<Member> members = ImmutableList.builder();
+      for (ExecutableElement method : ElementFilter.methodsIn(annotation.getEnclosedElements())) {
+         if (!method.getModifiers().contains(Modifier.STATIC)) {
+            members.add(Member.create(method, elements));
+         }
+      }
+      return new AnnotationModel(ClassName.get(annotation), members.build());
+   }
+
+   /** Returns the name of the annotation type. */
+   ClassName type() {
+      return type;
+   }
+
+   /** Returns the fully-qualified (canonical) name of the annotation type. */
+   String qualifiedName() {
+      return type.toString();
+   }
+
+   /** Returns the name of the annotation type's package. */
+   String packageName() {
+      return type.packageName();
+   }
+
+   /**
+    * Returns the simple name of the annotation type. If it's a nested type, dollar signs ($)
+    * separate nested from enclosing class names: e.g. Outer.Inner produces Outer$Inner.
+    */
+   String simpleName() {
+      return ON_DOLLAR.join(type.simpleNames());
+   }
+
+   /** Returns the annotation type's methods, in the order in which they are declared. */
+   List<Member> members() {
+      return members;
+   }
+
+   /**
+    * Returns the name of a class generated for the annotation. The generated class is a top-level
+    * class in the same package and named after the annotation, but with the given suffix.
+    */
+   ClassName generatedClassName(String suffix) {
+      return generatedClassName(type, suffix);
+   }
+
+   /**
+    * Returns the name of a class generated for the given annotation type. The generated class is a
+    * top-level class in the same package and named after the annotation, but with the given suffix.
+    */
+   static ClassName generatedClassName(ClassName annotationType, String suffix) {
+      return ClassName.get(annotationType.packageName(),
+            ON_DOLLAR.join(annotationType.simpleNames()) + suffix);
+   }
+
+   /** A single method, or member, of an annotation type. */
+   static final class Member {
+      private final String name;
+      private final TypeName type;
+      private final boolean array;
+      private final ValueKind valueKind;
+      private final TypeName valueType;
+      private final Value defaultValue;
+
+      private Member(String name, TypeName type, boolean array, ValueKind valueKind,
+            TypeName valueType, Value defaultValue) {
+         this.name = name;
+         this.type = type;
+         this.array = array;
+         this.valueKind = valueKind;
+         this.valueType = valueType;
+         this.defaultValue = defaultValue;
+      }
+
+      static Member create(ExecutableElement method, Elements elements) {
+         TypeMirror returnType = method.getReturnType();
+         boolean array = returnType.getKind() == TypeKind.ARRAY;
+         TypeMirror valueType = array ? ((ArrayType) returnType).getComponentType() : returnType;
+         AnnotationValue defaultValue = method.getDefaultValue();
+         return new Member(method.getSimpleName().toString(), TypeName.get(returnType), array,
+               valueKindOf(valueType), TypeName.get(valueType),
+               defaultValue == null ? null : Value.create(defaultValue, returnType, elements));
+      }
+
+      /** The name of the method. */
+      String name() {
+         return name;
+      }
+
+      /** The return type of the method. */
+      TypeName type() {
+         return type;
+      }
+
+      /** Returns true if the method returns an array. */
+      boolean isArray() {
+         return array;
+      }
+
+      /** The kind of value returned by the method or, for arrays, the kind of its elements. */
+      ValueKind valueKind() {
+         return valueKind;
+      }
+
+      /** The type of value returned by the method or, for arrays, the array's component type. */
+      TypeName valueType() {
+         return valueType;
+      }
+
+      /**
+       * The raw form of the {@linkplain #valueType() value type}. If the value type is generic,
+       * like {@code Class<? extends Foo>}, this strips the type arguments.
+       */
+      TypeName rawValueType() {
+         return valueType instanceof ParameterizedTypeName
+               ? ((ParameterizedTypeName) valueType).rawType
+               : valueType;
+      }
+
+      /**
+       * The annotation type of the value returned by the method or, for arrays, the annotation type
+       * of its elements. If the method does not return annotations, {@code null} is returned.
+       */
+      ClassName annotationType() {
+         return valueKind == ValueKind.ANNOTATION ? (ClassName) valueType : null;
+      }
+
+      /** The method's default value or {@code null} if it has no default. */
+      Value defaultValue() {
+         return defaultValue;
+      }
+   }
+
+   /**
+    * Returns the kind of the given type, which must be a valid type for an annotation method (or,
+    * if the method returns an array, for elements of the array).
+    */
+   static ValueKind valueKindOf(TypeMirror type) {
+      if (type.getKind().isPrimitive()) {
+         return ValueKind.PRIMITIVE;
+      }
+      TypeElement element = MoreElements.asType(((DeclaredType) type).asElement());
+      switch (element.getKind()) {
+         case ENUM:
+            return ValueKind.ENUM;
+         case ANNOTATION_TYPE:
+            return ValueKind.ANNOTATION;
+         default:
+            if (element.getQualifiedName().contentEquals(String.class.getCanonicalName())) {
+               return ValueKind.STRING;
+            } else if (element.getQualifiedName().contentEquals(Class.class.getCanonicalName())) {
+               return ValueKind.CLASS;
+            }
+            throw new AssertionError("Unsupported type in annotation! " + type);
+      }
+   }
+
+   /**
+    * An annotation value, like a method's default value. A value is either a constant (a primitive,
+    * string, class token, or enum), a nested annotation, or an array.
+    */
+   static final class Value {
+      private final CodeBlock constant;
+      private final ClassName annotationType;
+      private final Map<String, Value> annotationValues;
+      private final TypeName componentType;
+      private final List<Value> elements;
+
+      private Value(CodeBlock constant, ClassName annotationType,
+            Map<String, Value> annotationValues, TypeName componentType, List<Value> elements) {
+         this.constant = constant;
+         this.annotationType = annotationType;
+         this.annotationValues = annotationValues;
+         this.componentType = componentType;
+         this.elements = elements;
+      }
+
+      static Value create(AnnotationValue v, TypeMirror t, Elements elements) {
+         Object value = v.getValue();
+         if (value instanceof TypeMirror) {
+            // Class token
+            return constant(CodeBlock.builder()
+                  .add("$T.class", TypeName.get((TypeMirror) value))
+                  .build());
+         } else if (value instanceof AnnotationMirror) {
+            // Nested annotation
+            AnnotationMirror a = (AnnotationMirror) value;
+            TypeElement annotationElement = MoreElements.asType(a.getAnnotationType().asElement());
+            // record values in the order the annotation declares its methods, not the order in
+            // which they appear in source, so output is stable
+            Map<? extends ExecutableElement, ? extends AnnotationValue> values =
+                  a.getElementValues();
+            ImmutableMap.Builder<String, Value> annotationValues = ImmutableMap.builder();
+            for (ExecutableElement m
+                  : ElementFilter.methodsIn(annotationElement.getEnclosedElements())) {
+               AnnotationValue av = values.get(m);
+               if (av != null) {
+                  annotationValues.put(m.getSimpleName().toString(),
+                        create(av, m.getReturnType(), elements));
+               }
+            }
+            return new Value(null, ClassName.get(annotationElement), annotationValues.build(),
+                  null, null);
+         } else if (value instanceof VariableElement) {
+            // Enum
+            VariableElement enumField = (VariableElement) value;
+            return constant(CodeBlock.builder()
+                  .add("$T.$L", ClassName.get(MoreElements.asType(enumField.getEnclosingElement())),
+                        enumField.getSimpleName())
+                  .build());
+         } else if (value instanceof List) {
+            // Array
+            TypeMirror componentType = ((ArrayType) t).getComponentType();
+            ImmutableList.Builder<Value> arrayElements = ImmutableList.builder();
+            for (Object o : (List<?>) value) {
+               arrayElements.add(create((AnnotationValue) o, componentType, elements));
+            }
+            return new Value(null, null, null, TypeName.get(componentType),
+                  arrayElements.build());
+         } else {
+            // Strings and primitives
+            return constant(CodeBlock.builder()
+                  .add(elements.getConstantExpression(value))
+                  .build());
+         }
+      }
+
+      private static Value constant(CodeBlock constant) {
+         return new Value(constant, null, null, null, null);
+      }
+
+      /**
+       * Returns the code for a constant value (a primitive, string, class token, or enum) or
+       * {@code null} if this value is an annotation or an array.
+       */
+      CodeBlock constant() {
+         return constant;
+      }
+
+      /** Returns the type of a nested annotation or {@code null} if this is not an annotation. */
+      ClassName annotationType() {
+         return annotationType;
+      }
+
+      /**
+       * Returns the values explicitly defined for a nested annotation, keyed by method name and in
+       * the order in which the annotation declares its methods. Returns {@code null} if this is not
+       * an annotation.
+       */
+      Map<String, Value> annotationValues() {
+         return annotationValues;
+      }
+
+      /** Returns the component type of an array or {@code null} if this is not an array. */
+      TypeName componentType() {
+         return componentType;
+      }
+
+      /** Returns the elements of an array or {@code null} if this is not an array. */
+      List<Value> elements() {
+         return elements;
+      }
+   }
+}
@@ -0,0 +1,75 @@
+package com.bluegosling.artificer.internal;
+
+import com.squareup.javapoet.ClassName;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+/**
+ * A per-compilation cache of {@linkplain AnnotationModel annotation models} and of the existence
+ * of generated classes. An annotation type that is nested in many others is analyzed only once,
+ * and the existence of the classes generated for it is only looked up until they are found (or
+ * generated).
+ *
+ * <p>Models are keyed by name, so the cache does not retain the compiler's symbols. This class is
+ * not thread-safe. It must only be used from the compiler's thread.
+ */
+final class AnnotationModels {
+   private final Elements elements;
+   private final Map<String, AnnotationModel> models = new HashMap<>();
+   private final Set<String> existingTypes = new HashSet<>();
+
+   AnnotationModels(Elements elements) {
+      this.elements = elements;
+   }
+
+   /**
+    * Returns the model for the given annotation type, creating it if necessary.
+    *
+    * @param annotation an annotation type
+    * @return a model of the given annotation type
+    */
+   AnnotationModel get(TypeElement annotation) {
+      String name = annotation.getQualifiedName().toString();
+      AnnotationModel model = models.get(name);
+      if (model == null) {
+         model = AnnotationModel.create(annotation, elements);
+         models.put(name, model);
+      }
+      return model;
+   }
+
+   /**
+    * Determines if the given type exists. Only positive results are cached since a type that
+    * does not exist may be generated later.
+    *
+    * @param type the name of a type
+    * @return true if the given type exists
+    */
+   boolean exists(ClassName type) {
+      String name = type.toString();
+      if (existingTypes.contains(name)) {
+         return true;
+      }
+      if (elements.getTypeElement(name) != null) {
+         existingTypes.add(name);
+         return true;
+      }
+      return false;
+   }
+
+   /**
+    * Records that the given type has been generated, so subsequent checks for its existence need
+    * not consult the compiler.
+    *
+    * @param type the name of a generated type
+    */
+   void generated(ClassName type) {
+      existingTypes.add(type.toString());
+   }
+}
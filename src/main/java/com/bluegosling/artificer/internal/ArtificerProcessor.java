@@ -0,0 +1,36 @@
+package com.bluegosling.artificer.internal;
+
+import com.bluegosling.artificer.bridges.BridgeMarker;
+import com.bluegosling.artificer.builders.BuilderMarker;
+import com.google.auto.service.AutoService;
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+import javax.annotation.processing.Processor;
+import javax.lang.model.SourceVersion;
+
+/**
+ * The processor that generates all of Artificer's code. It generates a builder class for
+ * annotations indirectly marked with the meta-meta-annotation {@link BuilderMarker} and a bridge
+ * class for annotations indirectly marked with {@link BridgeMarker}. An annotation marked with
+ * both is analyzed only once, and both classes are generated from the same model.
+ */
+@AutoService(Processor.class)
+public class ArtificerProcessor extends AbstractMetaMetaProcessor {
+   @Override
+   public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+   }
+
+   @Override
+   List<AnnotationGenerator> createGenerators() {
+      boolean arrayViews =
+            Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_ARRAY_VIEWS));
+      boolean valuePool =
+            Boolean.parseBoolean(processingEnv.getOptions().get(OPTION_VALUE_POOL));
+      return ImmutableList.<AnnotationGenerator>of(
+            new AnnotationBuilderGenerator(arrayViews, valuePool),
+            new AnnotationBridgeGenerator());
+   }
+}
@@ -0,0 +1,90 @@
+package com.bluegosling.artificer.internal;
+
+import com.squareup.javapoet.ArrayTypeName;
+import com.squareup.javapoet.CodeBlock;
+import com.squareup.javapoet.TypeName;
+
+import java.util.Arrays;
+
+/**
+ * Emits the expressions that generated classes use to implement {@link Object#equals(Object)} and
+ * {@link Object#hashCode()} per the contract of {@link java.lang.annotation.Annotation}. Both
+ * the builders' implementation classes and the bridges use these, so the contract is implemented
+ * in just one place.
+ */
+final class EqualsAndHashCode {
+   private EqualsAndHashCode() {
+   }
+
+   /**
+    * Emits an expression that compares the value of a member in this instance to the value in
+    * another instance.
+    *
+    * @param fieldName the name of the field in this instance that holds the member's value
+    * @param fieldType the type of the field; arrays are compared by content and other objects with
+    *       their {@code equals} method
+    * @param other an expression for the other instance's value
+    * @param equalsImpl the code to which the expression is added
+    */
+   static void addEquals(String fieldName, TypeName fieldType, CodeBlock other,
+         CodeBlock.Builder equalsImpl) {
+      if (fieldType instanceof ArrayTypeName) {
+         equalsImpl.add("$T.equals($L, $L)", Arrays.class, fieldName, other);
+      } else if (!fieldType.isPrimitive()) {
+         equalsImpl.add("$L.equals($L)", fieldName, other);
+      } else if (fieldType.equals(TypeName.FLOAT)) {
+         // same semantics as Float.equals, but without boxing
+         equalsImpl.add("$T.floatToIntBits($L) == $T.floatToIntBits($L)", Float.class,
+               fieldName, Float.class, other);
+      } else if (fieldType.equals(TypeName.DOUBLE)) {
+         equalsImpl.add("$T.doubleToLongBits($L) == $T.doubleToLongBits($L)", Double.class,
+               fieldName, Double.class, other);
+      } else {
+         equalsImpl.add("$L == $L", fieldName, other);
+      }
+   }
+
+   /**
+    * Emits an expression for a member's contribution to an annotation's hash code: the hash code
+    * of its value XOR'ed with 127 times the hash code of its name.
+    *
+    * @param memberName the name of the member, which is also the name of the field that holds its
+    *       value
+    * @param fieldType the type of the field
+    * @param hashCodeImpl the code to which the expression is added
+    */
+   static void addHashCode(String memberName, TypeName fieldType,
+         CodeBlock.Builder hashCodeImpl) {
+      // the contribution of the member's name is constant, so it's computed up front
+      hashCodeImpl.add("($L ^ ", 127 * memberName.hashCode());
+      if (fieldType.isPrimitive()) {
+         addPrimitiveHashCode(memberName, fieldType, hashCodeImpl);
+      } else if (fieldType instanceof ArrayTypeName) {
+         hashCodeImpl.add("$T.hashCode($L)", Arrays.class, memberName);
+      } else {
+         hashCodeImpl.add("$L.hashCode()", memberName);
+      }
+      hashCodeImpl.add(")");
+   }
+
+   /**
+    * Emits an expression that computes the same hash code as the boxed form of the given
+    * primitive value, but without boxing it.
+    */
+   private static void addPrimitiveHashCode(String fieldName, TypeName fieldType,
+         CodeBlock.Builder hashCodeImpl) {
+      if (fieldType.equals(TypeName.BOOLEAN)) {
+         hashCodeImpl.add("($L ? 1231 : 1237)", fieldName);
+      } else if (fieldType.equals(TypeName.LONG)) {
+         hashCodeImpl.add("(int) ($L ^ ($L >>> 32))", fieldName, fieldName);
+      } else if (fieldType.equals(TypeName.FLOAT)) {
+         hashCodeImpl.add("$T.floatToIntBits($L)", Float.class, fieldName);
+      } else if (fieldType.equals(TypeName.DOUBLE)) {
+         hashCodeImpl.add("(int) ($T.doubleToLongBits($L) ^ ($T.doubleToLongBits($L) >>> 32))",
+               Double.class, fieldName, Double.class, fieldName);
+      } else {
+         // byte, char, short, and int all hash to their int value
+         hashCodeImpl.add("$L", fieldName);
+      }
+   }
+}
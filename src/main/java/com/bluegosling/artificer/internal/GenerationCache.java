@@ -0,0 +1,187 @@
+package com.bluegosling.artificer.internal;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+
+/**
+ * A persistent, on-disk cache of generated sources. Entries are keyed by a structural fingerprint
+ * of the annotation type for which a source was generated. The fingerprint covers everything that
+ * influences generated code: the annotation's name and, for each of its methods, the method's name,
+ * return type, and default value. It also covers the shapes of any annotation types that are
+ * referenced by those methods, recursively.
+ *
+ * <p>All keys are also salted with the identity of the generator: the processor class, the
+ * processor options that influence output, and a hash of the processor's own code. So upgrading
+ * the processor (or changing options) never results in stale cache hits.
+ *
+ * <p>The cache may be shared by concurrent compilations. Entries are written to a temporary file
+ * and then moved into place, so readers never observe partially written entries.
+ */
+final class GenerationCache {
+   private static final String ENTRY_SUFFIX = ".java.cache";
+
+   private final Path directory;
+   private final Elements elements;
+   private final String salt;
+
+   GenerationCache(Path directory, Elements elements, Class<?> processorClass,
+         Map<String, String> options) throws IOException {
+      this.directory = Files.createDirectories(directory);
+      this.elements = elements;
+      Hasher hasher = Hashing.sha256().newHasher()
+            .putString(processorClass.getName(), Charsets.UTF_8)
+            .putString(new TreeMap<>(options).toString(), Charsets.UTF_8);
+      hashCode(processorClass, hasher);
+      this.salt = hasher.hash().toString();
+   }
+
+   /**
+    * Hashes the code of the given processor. If loaded from a JAR, the whole JAR is hashed. If
+    * loaded from a directory, all classes in the processor's package are hashed.
+    */
+   private static void hashCode(Class<?> processorClass, Hasher hasher) throws IOException {
+      CodeSource codeSource = processorClass.getProtectionDomain().getCodeSource();
+      URL location = codeSource == null ? null : codeSource.getLocation();
+      if (location == null || !"file".equals(location.getProtocol())) {
+         return;
+      }
+      File file;
+      try {
+         file = new File(location.toURI());
+      } catch (URISyntaxException e) {
+         throw new IOException(e);
+      }
+      if (file.isFile()) {
+         hasher.putBytes(Files.readAllBytes(file.toPath()));
+         return;
+      }
+      File packageDir = new File(file,
+            processorClass.getPackage().getName().replace('.', File.separatorChar));
+      File[] classFiles = packageDir.listFiles();
+      if (classFiles == null) {
+         return;
+      }
+      Arrays.sort(classFiles);
+      for (File classFile : classFiles) {
+         if (classFile.getName().endsWith(".class")) {
+            hasher.putString(classFile.getName(), Charsets.UTF_8)
+                  .putBytes(Files.readAllBytes(classFile.toPath()));
+         }
+      }
+   }
+
+   /**
+    * Computes the cache key for the given annotation type.
+    *
+    * @param annotation an annotation type
+    * @return the key for the source generated for the given type
+    */
+   String key(TypeElement annotation) {
+      Hasher hasher = Hashing.sha256().newHasher().putString(salt, Charsets.UTF_8);
+      fingerprint(annotation, hasher, new HashSet<TypeElement>());
+      return hasher.hash().toString();
+   }
+
+   private void fingerprint(TypeElement annotation, Hasher hasher, Set<TypeElement> visited) {
+      if (!visited.add(annotation)) {
+         // just note the reference
+         hasher.putString("@" + annotation.getQualifiedName(), Charsets.UTF_8);
+         return;
+      }
+      hasher.putString("@interface " + elements.getBinaryName(annotation) + " {",
+            Charsets.UTF_8);
+      for (ExecutableElement method : ElementFilter.methodsIn(annotation.getEnclosedElements())) {
+         if (method.getModifiers().contains(Modifier.STATIC)) {
+            continue;
+         }
+         AnnotationValue defaultValue = method.getDefaultValue();
+         hasher.putString(method.getReturnType() + " " + method.getSimpleName() + "()"
+               + (defaultValue == null ? "" : " default " + defaultValue) + ";",
+               Charsets.UTF_8);
+         TypeElement nested = annotationTypeOf(method.getReturnType());
+         if (nested != null) {
+            fingerprint(nested, hasher, visited);
+         }
+      }
+      hasher.putString("}", Charsets.UTF_8);
+   }
+
+   private static TypeElement annotationTypeOf(TypeMirror type) {
+      if (type.getKind() == TypeKind.ARRAY) {
+         type = ((ArrayType) type).getComponentType();
+      }
+      if (type.getKind() != TypeKind.DECLARED) {
+         return null;
+      }
+      TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+      return element.getKind() == ElementKind.ANNOTATION_TYPE ? element : null;
+   }
+
+   /**
+    * Gets the cached source for the given key.
+    *
+    * @param key the cache key
+    * @return the cached source or {@code null} if there is no such entry in the cache
+    * @throws IOException if the entry exists but could not be read
+    */
+   String get(String key) throws IOException {
+      try {
+         return new String(Files.readAllBytes(directory.resolve(key + ENTRY_SUFFIX)),
+               Charsets.UTF_8);
+      } catch (NoSuchFileException e) {
+         return null;
+      }
+   }
+
+   /**
+    * Stores the given source in the cache.
+    *
+    * @param key the cache key
+    * @param source the generated source
+    * @throws IOException if the entry could not be written
+    */
+   void put(String key, String source) throws IOException {
+      Path entry = directory.resolve(key + ENTRY_SUFFIX);
+      Path tmp = Files.createTempFile(directory, key, ".tmp");
+      try {
+         Files.write(tmp, source.getBytes(Charsets.UTF_8));
+         try {
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE,
+                  StandardCopyOption.REPLACE_EXISTING);
+         } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, entry, StandardCopyOption.REPLACE_EXISTING);
+         }
+      } finally {
+         Files.deleteIfExists(tmp);
+      }
+   }
+}
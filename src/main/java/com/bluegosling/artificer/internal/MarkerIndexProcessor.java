@@ -0,0 +1,93 @@
+package com.bluegosling.artificer.internal;
+
+import com.bluegosling.artificer.bridges.BridgeMarker;
+import com.bluegosling.artificer.builders.BuilderMarker;
+import com.google.auto.common.MoreElements;
+import com.google.auto.service.AutoService;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.BufferedWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.Processor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+/**
+ * A processor that records custom meta-annotations, those marked with {@link BuilderMarker} or
+ * {@link BridgeMarker}, in an index file: {@value AbstractMetaMetaProcessor#MARKER_INDEX}. When
+ * the compiled classes are later on the annotation processor path or class path, the
+ * {@link ArtificerProcessor} reads this index so it only needs to claim the marker annotations it
+ * actually cares about, instead of claiming all annotations and searching them for markers.
+ *
+ * <p>Unlike the {@link ArtificerProcessor}, this processor is <em>aggregating</em>: its one output
+ * file summarizes all markers in the compilation.
+ */
+@AutoService(Processor.class)
+public class MarkerIndexProcessor extends AbstractProcessor {
+   /** Index entries, sorted by marker name so the output is stable. */
+   private final Map<String, String> entries = new TreeMap<>();
+   private final List<Element> originatingElements = new ArrayList<>();
+
+   @Override
+   public SourceVersion getSupportedSourceVersion() {
+      return SourceVersion.latestSupported();
+   }
+
+   @Override
+   public Set<String> getSupportedAnnotationTypes() {
+      return ImmutableSet.of(BuilderMarker.class.getCanonicalName(),
+            BridgeMarker.class.getCanonicalName());
+   }
+
+   @Override
+   public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+      if (roundEnv.processingOver()) {
+         writeIndex();
+         return false;
+      }
+      for (TypeElement metaMeta : annotations) {
+         for (Element e : roundEnv.getElementsAnnotatedWith(metaMeta)) {
+            if (e.getKind() == ElementKind.ANNOTATION_TYPE) {
+               TypeElement marker = MoreElements.asType(e);
+               entries.put(marker.getQualifiedName() + " " + metaMeta.getQualifiedName(),
+                     metaMeta.getQualifiedName() + " " + marker.getQualifiedName());
+               originatingElements.add(marker);
+            }
+         }
+      }
+      return false;
+   }
+
+   private void writeIndex() {
+      if (entries.isEmpty()) {
+         return;
+      }
+      try {
+         FileObject index = processingEnv.getFiler().createResource(
+               StandardLocation.CLASS_OUTPUT, "", AbstractMetaMetaProcessor.MARKER_INDEX,
+               originatingElements.toArray(new Element[originatingElements.size()]));
+         try (Writer writer = new BufferedWriter(index.openWriter())) {
+            for (String entry : entries.values()) {
+               writer.write(entry);
+               writer.write('\n');
+            }
+         }
+      } catch (Exception e) {
+         processingEnv.getMessager().printMessage(Kind.ERROR, Throwables.getStackTraceAsString(e));
+      }
+   }
+}
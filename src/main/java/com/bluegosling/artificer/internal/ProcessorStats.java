@@ -0,0 +1,224 @@
+package com.bluegosling.artificer.internal;
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Performance statistics for a single compilation, reported as JSON. Statistics are recorded per
+ * processing round and per annotation type. For each annotation type, the time spent analyzing it
+ * (creating its model and looking up generated sources in the cache) is recorded, and then, for
+ * each generated class, the time spent generating the source with JavaPoet and writing it with
+ * the {@link javax.annotation.processing.Filer}, along with the number of bytes written.
+ *
+ * <p>This class is not thread-safe. It must only be used from the compiler's thread.
+ */
+final class ProcessorStats {
+   private final Path file;
+   private final List<Round> rounds = new ArrayList<>();
+   private final List<AnnotationStats> annotations = new ArrayList<>();
+   private Round currentRound;
+
+   ProcessorStats(Path file) {
+      this.file = file;
+   }
+
+   /** Returns the path of the file to which the report is written. */
+   Path file() {
+      return file;
+   }
+
+   /** Starts a new processing round. Subsequent counts are recorded for this round. */
+   void newRound() {
+      currentRound = new Round(rounds.size() + 1);
+      rounds.add(currentRound);
+   }
+
+   /** Records the wall time of the current round. */
+   void endRound(long nanos) {
+      currentRound.nanos = nanos;
+   }
+
+   /** Records that an annotation type was queued for processing. */
+   void queued() {
+      currentRound.queued++;
+   }
+
+   /** Records that an annotation type was deferred to a subsequent round. */
+   void deferred() {
+      currentRound.deferred++;
+   }
+
+   /** Records that an annotation type was skipped because it is in a forbidden package. */
+   void skipped() {
+      currentRound.skipped++;
+   }
+
+   /**
+    * Records that an annotation type was analyzed.
+    *
+    * @param annotation the name of the annotation type
+    * @param analysisNanos the time spent analyzing the type
+    * @return an object to which generated outputs for the type are recorded
+    */
+   AnnotationStats analyzed(String annotation, long analysisNanos) {
+      AnnotationStats stats = new AnnotationStats(annotation, currentRound, analysisNanos);
+      annotations.add(stats);
+      return stats;
+   }
+
+   /**
+    * Writes the report.
+    *
+    * @param processorName the name of the processor that generated the code
+    * @throws IOException if the report could not be written
+    */
+   void write(String processorName) throws IOException {
+      StringBuilder sb = new StringBuilder();
+      sb.append("{\n  \"processor\": ");
+      appendString(sb, processorName);
+      long totalNanos = 0;
+      for (Round round : rounds) {
+         totalNanos += round.nanos;
+      }
+      sb.append(",\n  \"totalMillis\": ").append(millis(totalNanos));
+      sb.append(",\n  \"rounds\": [");
+      boolean first = true;
+      for (Round round : rounds) {
+         sb.append(first ? "\n" : ",\n");
+         first = false;
+         sb.append("    {\"round\": ").append(round.number)
+               .append(", \"wallMillis\": ").append(millis(round.nanos))
+               .append(", \"queued\": ").append(round.queued)
+               .append(", \"deferred\": ").append(round.deferred)
+               .append(", \"skipped\": ").append(round.skipped)
+               .append(", \"filesWritten\": ").append(round.filesWritten)
+               .append(", \"bytesWritten\": ").append(round.bytesWritten)
+               .append("}");
+      }
+      sb.append(first ? "]" : "\n  ]");
+      sb.append(",\n  \"annotations\": [");
+      first = true;
+      for (AnnotationStats annotation : annotations) {
+         sb.append(first ? "\n" : ",\n");
+         first = false;
+         sb.append("    {\"annotation\": ");
+         appendString(sb, annotation.name);
+         sb.append(", \"round\": ").append(annotation.round.number)
+               .append(", \"analysisMillis\": ").append(millis(annotation.analysisNanos))
+               .append(", \"outputs\": [");
+         boolean firstOutput = true;
+         for (Output output : annotation.outputs) {
+            sb.append(firstOutput ? "\n" : ",\n");
+            firstOutput = false;
+            sb.append("      {\"generatedClass\": ");
+            appendString(sb, output.generatedClass);
+            sb.append(", \"cached\": ").append(output.cached)
+                  .append(", \"generateMillis\": ").append(millis(output.generateNanos))
+                  .append(", \"writeMillis\": ").append(millis(output.writeNanos))
+                  .append(", \"bytesWritten\": ").append(output.bytesWritten)
+                  .append("}");
+         }
+         sb.append(firstOutput ? "]}" : "\n    ]}");
+      }
+      sb.append(first ? "]" : "\n  ]");
+      sb.append("\n}\n");
+
+      Path parent = file.toAbsolutePath().getParent();
+      if (parent != null) {
+         Files.createDirectories(parent);
+      }
+      Files.write(file, sb.toString().getBytes(Charsets.UTF_8));
+   }
+
+   private static String millis(long nanos) {
+      return String.format(Locale.ROOT, "%.3f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+   }
+
+   private static void appendString(StringBuilder sb, String s) {
+      sb.append('"');
+      for (int i = 0; i < s.length(); i++) {
+         char ch = s.charAt(i);
+         if (ch == '"' || ch == '\\') {
+            sb.append('\\').append(ch);
+         } else if (ch < ' ') {
+            sb.append(String.format(Locale.ROOT, "\\u%04x", (int) ch));
+         } else {
+            sb.append(ch);
+         }
+      }
+      sb.append('"');
+   }
+
+   /** Statistics for a single processing round. */
+   private static class Round {
+      final int number;
+      long nanos;
+      int queued;
+      int deferred;
+      int skipped;
+      int filesWritten;
+      long bytesWritten;
+
+      Round(int number) {
+         this.number = number;
+      }
+   }
+
+   /** Statistics for a single annotation type. */
+   static final class AnnotationStats {
+      final String name;
+      final Round round;
+      final long analysisNanos;
+      final List<Output> outputs = new ArrayList<>();
+
+      AnnotationStats(String name, Round round, long analysisNanos) {
+         this.name = name;
+         this.round = round;
+         this.analysisNanos = analysisNanos;
+      }
+
+      /**
+       * Records a class generated for the annotation type.
+       *
+       * @param generatedClass the name of the generated class
+       * @param cached true if the source was loaded from the cache instead of generated
+       * @param generateNanos the time spent generating the source
+       * @param writeNanos the time spent writing the source
+       * @param bytesWritten the number of bytes written, which is zero if the file was unchanged
+       *       and thus not re-written
+       */
+      void generated(String generatedClass, boolean cached, long generateNanos, long writeNanos,
+            long bytesWritten) {
+         outputs.add(new Output(generatedClass, cached, generateNanos, writeNanos, bytesWritten));
+         if (bytesWritten > 0) {
+            round.filesWritten++;
+            round.bytesWritten += bytesWritten;
+         }
+      }
+   }
+
+   /** Statistics for a single generated class. */
+   private static class Output {
+      final String generatedClass;
+      final boolean cached;
+      final long generateNanos;
+      final long writeNanos;
+      final long bytesWritten;
+
+      Output(String generatedClass, boolean cached, long generateNanos, long writeNanos,
+            long bytesWritten) {
+         this.generatedClass = generatedClass;
+         this.cached = cached;
+         this.generateNanos = generateNanos;
+         this.writeNanos = writeNanos;
+         this.bytesWritten = bytesWritten;
+      }
+   }
+}
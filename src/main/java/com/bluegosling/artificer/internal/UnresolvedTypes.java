@@ -0,0 +1,151 @@
+package com.bluegosling.artificer.internal;
+
+import com.google.auto.common.SuperficialValidation;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.TypeParameterElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.type.WildcardType;
+
+/**
+ * Finds the names of unresolved types referenced by an element. These are the types that cause
+ * the element to fail {@linkplain SuperficialValidation superficial validation}. An element that
+ * fails validation is deferred until the types it refers to can be resolved, and these names
+ * indicate what it is waiting on.
+ *
+ * <p>Names are reported as simple names, since an unresolved type may be referenced in source by a
+ * simple, qualified, or partially qualified name.
+ */
+final class UnresolvedTypes {
+   /**
+    * How javac represents annotation values that refer to unresolved types, like class literals
+    * for unknown classes. The unresolved type's name is not available in such a value.
+    */
+   private static final String ERROR_VALUE = "<error>";
+
+   private UnresolvedTypes() {
+   }
+
+   /**
+    * Returns the simple names of unresolved types referenced by the given element, its enclosed
+    * elements, and its annotations. If the element refers to unresolved types whose names cannot be
+    * determined, an empty set is returned.
+    *
+    * @param element an element
+    * @return the simple names of unresolved types referenced by the element
+    */
+   static Set<String> simpleNames(Element element) {
+      Finder finder = new Finder();
+      finder.scan(element);
+      return finder.unknown ? ImmutableSet.<String>of() : finder.names;
+   }
+
+   private static class Finder {
+      final Set<String> names = new LinkedHashSet<>();
+      boolean unknown;
+
+      void scan(Element e) {
+         for (AnnotationMirror annotation : e.getAnnotationMirrors()) {
+            scan(annotation);
+         }
+         if (e instanceof TypeElement) {
+            TypeElement type = (TypeElement) e;
+            scan(type.getSuperclass());
+            scanTypes(type.getInterfaces());
+            scanElements(type.getTypeParameters());
+            scanElements(type.getEnclosedElements());
+         } else if (e instanceof ExecutableElement) {
+            ExecutableElement executable = (ExecutableElement) e;
+            scan(executable.getReturnType());
+            scanTypes(executable.getThrownTypes());
+            scanElements(executable.getTypeParameters());
+            scanElements(executable.getParameters());
+            AnnotationValue defaultValue = executable.getDefaultValue();
+            if (defaultValue != null) {
+               scan(defaultValue);
+            }
+         } else if (e instanceof VariableElement) {
+            scan(e.asType());
+         } else if (e instanceof TypeParameterElement) {
+            scanTypes(((TypeParameterElement) e).getBounds());
+         }
+      }
+
+      void scanElements(List<? extends Element> elements) {
+         for (Element e : elements) {
+            scan(e);
+         }
+      }
+
+      void scanTypes(List<? extends TypeMirror> types) {
+         for (TypeMirror t : types) {
+            scan(t);
+         }
+      }
+
+      void scan(TypeMirror t) {
+         switch (t.getKind()) {
+            case ERROR:
+               String name = t.toString();
+               int typeArgs = name.indexOf('<');
+               if (typeArgs >= 0) {
+                  name = name.substring(0, typeArgs);
+               }
+               names.add(name.substring(name.lastIndexOf('.') + 1));
+               break;
+            case DECLARED:
+               scanTypes(((DeclaredType) t).getTypeArguments());
+               break;
+            case ARRAY:
+               scan(((ArrayType) t).getComponentType());
+               break;
+            case WILDCARD:
+               WildcardType wildcard = (WildcardType) t;
+               if (wildcard.getExtendsBound() != null) {
+                  scan(wildcard.getExtendsBound());
+               }
+               if (wildcard.getSuperBound() != null) {
+                  scan(wildcard.getSuperBound());
+               }
+               break;
+            default:
+               // type variables are covered by their declarations; other kinds can't be unresolved
+               break;
+         }
+      }
+
+      void scan(AnnotationMirror annotation) {
+         scan(annotation.getAnnotationType());
+         for (AnnotationValue value : annotation.getElementValues().values()) {
+            scan(value);
+         }
+      }
+
+      void scan(AnnotationValue value) {
+         Object v = value.getValue();
+         if (v instanceof TypeMirror) {
+            scan((TypeMirror) v);
+         } else if (v instanceof AnnotationMirror) {
+            scan((AnnotationMirror) v);
+         } else if (v instanceof List) {
+            for (Object o : (List<?>) v) {
+               scan((AnnotationValue) o);
+            }
+         } else if (ERROR_VALUE.equals(v)) {
+            unknown = true;
+         }
+      }
+   }
+}
@@ -16,16 +16,19 @@ import java.io.StringWriter;
 import java.io.UncheckedIOException;
 import java.lang.annotation.Annotation;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.processing.AbstractProcessor;
 import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.Processor;
 import javax.annotation.processing.RoundEnvironment;
 import javax.lang.model.SourceVersion;
 import javax.lang.model.element.TypeElement;
@@ -43,7 +46,9 @@ import javax.tools.JavaCompiler.CompilationTask;
 import javax.tools.JavaFileObject.Kind;
 
 /**
- * A rule that will run each test case in the context of a compiler invocation.
+ * A rule that will run each test case in the context of a compiler invocation. It can also be used
+ * to just {@linkplain #compile() compile} code, with other annotation processors, and then examine
+ * the results.
  * 
  * @author Joshua Humphries (jhumphries131@gmail.com)
  */
@@ -54,6 +59,10 @@ public class CompilerRule implements TestRule {
    private final boolean reentrant;
    private final Set<JavaFileObject> compilationUnits;
    private final Set<Class<? extends Annotation>> annotationsSupported;
+   private final List<Class<? extends Processor>> processors;
+   private final List<String> options;
+   private final List<File> classPath;
+   private final File outputDirectory;
    private final Set<FileObject> filesCreated = new LinkedHashSet<>();
    private ProcessingEnvironment processingEnv;
    private Set<TypeElement> annotations;
@@ -63,6 +72,10 @@ public class CompilerRule implements TestRule {
       this.reentrant = b.reentrant;
       this.compilationUnits = b.compilationUnits;
       this.annotationsSupported = b.annotationsSupported;
+      this.processors = b.processors;
+      this.options = b.options;
+      this.classPath = b.classPath;
+      this.outputDirectory = b.outputDirectory;
    }
    
    public ProcessingEnvironment processingEnv() {
@@ -84,10 +97,36 @@ public class CompilerRule implements TestRule {
       filesCreated.clear();
    }
    
-   @Override
-   public Statement apply(final Statement base, Description description) {
+   /**
+    * Compiles the configured compilation units using only the configured processors. No test case
+    * is run in the context of the compiler, and outputs are not removed afterwards. This can be
+    * called more than once, to re-compile with a fresh instance of each processor.
+    *
+    * @return the result of compilation
+    */
+   public Result compile() {
+      StringWriter writer = new StringWriter();
+      File dir = outputDirectory == null ? Files.createTempDir() : outputDirectory;
+      CompilationTask task = createTask(writer, dir);
+      task.setProcessors(newProcessors());
+      Boolean ret = task.call();
+      return new Result(ret != null && ret, writer.toString(), dir);
+   }
+
+   private List<Processor> newProcessors() {
+      List<Processor> instances = new ArrayList<>(processors.size() + 1);
+      for (Class<? extends Processor> processor : processors) {
+         try {
+            instances.add(processor.newInstance());
+         } catch (InstantiationException | IllegalAccessException e) {
+            throw new RuntimeException(e);
+         }
+      }
+      return instances;
+   }
+
+   private CompilationTask createTask(final StringWriter writer, File dir) {
       JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
-      final StringWriter writer = new StringWriter();
       DiagnosticListener<JavaFileObject> diags = new DiagnosticListener<JavaFileObject>() {
          @Override
          public void report(Diagnostic<? extends JavaFileObject> diagnostic) {
@@ -99,16 +138,25 @@ public class CompilerRule implements TestRule {
             writer.write(": " + diagnostic.getMessage(null) + "\n");
          }
       };
-      final CompilationTask task = javac.getTask(writer,
+      return javac.getTask(writer,
             new FileManager(
-                  javac.getStandardFileManager(diags, Locale.getDefault(), Charsets.UTF_8)),
+                  javac.getStandardFileManager(diags, Locale.getDefault(), Charsets.UTF_8), dir),
             diags,
-            Collections.<String>emptyList(),
+            options,
             compilationUnits.isEmpty()
                   ? Arrays.asList("java.lang.Object")
                   : Collections.<String>emptyList(),
             compilationUnits);
-      task.setProcessors(Arrays.asList(new Processor()));
+   }
+   
+   @Override
+   public Statement apply(final Statement base, Description description) {
+      final StringWriter writer = new StringWriter();
+      final CompilationTask task = createTask(writer,
+            outputDirectory == null ? Files.createTempDir() : outputDirectory);
+      List<Processor> allProcessors = newProcessors();
+      allProcessors.add(new TestProcessor());
+      task.setProcessors(allProcessors);
       return new Statement() {
          @Override
          public void evaluate() throws Throwable {
@@ -126,16 +174,56 @@ public class CompilerRule implements TestRule {
       };
    }
    
+   /**
+    * The result of {@linkplain CompilerRule#compile() compiling} code.
+    */
+   public static class Result {
+      private final boolean succeeded;
+      private final String diagnostics;
+      private final File outputDirectory;
+      
+      Result(boolean succeeded, String diagnostics, File outputDirectory) {
+         this.succeeded = succeeded;
+         this.diagnostics = diagnostics;
+         this.outputDirectory = outputDirectory;
+      }
+      
+      public boolean succeeded() {
+         return succeeded;
+      }
+      
+      /**
+       * Returns all diagnostics reported by the compiler, one per line.
+       */
+      public String diagnostics() {
+         return diagnostics;
+      }
+      
+      /**
+       * Returns the directory to which all outputs, including generated sources, were written.
+       */
+      public File outputDirectory() {
+         return outputDirectory;
+      }
+   }
+   
    public static class Builder {
       private boolean reentrant;
       private Set<JavaFileObject> compilationUnits = new LinkedHashSet<>();
       private Set<Class<? extends Annotation>> annotationsSupported = new LinkedHashSet<>();
+      private List<Class<? extends Processor>> processors = new ArrayList<>();
+      private List<String> options = new ArrayList<>();
+      private List<File> classPath = new ArrayList<>();
+      private File outputDirectory;
       private boolean needReset;
       
       private void maybeReset() {
          if (needReset) {
             compilationUnits = new LinkedHashSet<>(compilationUnits);
             annotationsSupported = new LinkedHashSet<>(annotationsSupported);
+            processors = new ArrayList<>(processors);
+            options = new ArrayList<>(options);
+            classPath = new ArrayList<>(classPath);
             needReset = false;
          }
       }
@@ -178,6 +266,45 @@ public class CompilerRule implements TestRule {
          return this;
       }
       
+      /**
+       * Adds an annotation processor. A new instance is created for every compilation, so the class
+       * must have a public no-arg constructor.
+       */
+      public Builder addProcessor(Class<? extends Processor> processor) {
+         maybeReset();
+         processors.add(requireNonNull(processor));
+         return this;
+      }
+
+      /**
+       * Adds options for the compiler, like {@code -A<key>=<value>} options for annotation
+       * processors.
+       */
+      public Builder addOptions(String... compilerOptions) {
+         maybeReset();
+         options.addAll(Arrays.asList(compilerOptions));
+         return this;
+      }
+
+      /**
+       * Adds an entry to the end of the class path, which otherwise is the same as that of the
+       * current process.
+       */
+      public Builder addClassPathEntry(File entry) {
+         maybeReset();
+         classPath.add(requireNonNull(entry));
+         return this;
+      }
+
+      /**
+       * Sets the directory to which all outputs are written. If not set, a new temporary directory
+       * is used for each compilation.
+       */
+      public Builder outputDirectory(File dir) {
+         this.outputDirectory = requireNonNull(dir);
+         return this;
+      }
+      
       public CompilerRule build() {
          needReset = true;
          return new CompilerRule(this);
@@ -187,19 +314,30 @@ public class CompilerRule implements TestRule {
    private class FileManager implements JavaFileManager {
       private final JavaFileManager delegate;
       
-      FileManager(StandardJavaFileManager delegate) {
+      FileManager(StandardJavaFileManager delegate, File outputDir) {
          this.delegate = delegate;
-         // direct all outputs to a temporary directory
-         File tempDir = Files.createTempDir();
+         // direct all outputs to the given directory
          for (Location l : StandardLocation.values()) {
             if (l.isOutputLocation()) {
                try {
-                  delegate.setLocation(l, Arrays.asList(tempDir));
+                  delegate.setLocation(l, Arrays.asList(outputDir));
                } catch (IOException e) {
                   throw new UncheckedIOException(e);
                }
             }
          }
+         if (!classPath.isEmpty()) {
+            List<File> entries = new ArrayList<>();
+            for (File entry : delegate.getLocation(StandardLocation.CLASS_PATH)) {
+               entries.add(entry);
+            }
+            entries.addAll(classPath);
+            try {
+               delegate.setLocation(StandardLocation.CLASS_PATH, entries);
+            } catch (IOException e) {
+               throw new UncheckedIOException(e);
+            }
+         }
       }
       
       @Override
@@ -277,7 +415,7 @@ public class CompilerRule implements TestRule {
       }
    }
    
-   private class Processor extends AbstractProcessor {
+   private class TestProcessor extends AbstractProcessor {
       @Override
       public Set<String> getSupportedAnnotationTypes() {
          if (annotationsSupported.isEmpty()) {
@@ -5,13 +5,17 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.bluegosling.artificer.internal.AbstractMetaMetaProcessor;
 import org.junit.Test;
 
+import java.io.StringWriter;
+import java.lang.annotation.Annotation;
 import java.lang.annotation.RetentionPolicy;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -69,6 +73,25 @@ public class BuilderTest {
       }
    }
    
+   @Test public void customMarker() {
+      // Gizmo is marked with a custom marker defined in the same compilation
+      Gizmo gizmo = new Gizmo$Builder().value(101).build();
+      assertEquals(Gizmo.class, gizmo.annotationType());
+      assertEquals(101, gizmo.value());
+   }
+
+   @Test public void builderAndBridge() throws Exception {
+      // Widget is marked for both a builder and a bridge, and so are the annotations nested in it
+      Widget widget = new Widget$Builder().name("w").foos(new Foo$Builder().value("f").build())
+            .build();
+      assertEquals(Widget.class, widget.annotationType());
+      assertEquals("f", widget.foos()[0].value());
+      for (String bridge
+            : new String[] { "Widget$Bridge", "Foo$Bridge", "Foo$OtherAnnotation$Bridge" }) {
+         Class.forName("com.bluegosling.artificer.builders." + bridge);
+      }
+   }
+
    @Test public void annotationType() {
       Foo foo = new Foo$Builder().value("abc").build();
       assertEquals(Foo.class, foo.annotationType());
@@ -96,6 +119,275 @@ public class BuilderTest {
       assertArrayEquals(annoLoaded.whoah(), annoBuilt.whoah());
    }
 
+   @Test public void addAll() {
+      Foo.OtherAnnotation[] details = new Foo.OtherAnnotation[100];
+      for (int i = 0; i < details.length; i++) {
+         details[i] = new Foo$OtherAnnotation$Builder().value("detail" + i).build();
+      }
+      Foo.OtherAnnotation[] expected = new Foo.OtherAnnotation[151];
+      expected[0] = new Foo$Builder().value("abc").build().details()[0];
+      System.arraycopy(details, 0, expected, 1, 100);
+      System.arraycopy(details, 50, expected, 101, 50);
+
+      Foo foo = new Foo$Builder().value("abc")
+            .ensureDetailsCapacity(151)
+            .addAllDetails(details)
+            .addAllDetails(details, 50, 50)
+            .build();
+      assertArrayEquals(expected, foo.details());
+
+      foo = new Foo$Builder().value("abc")
+            .addAllDetails(Arrays.asList(details))
+            .addAllDetails(Arrays.asList(details).subList(50, 100))
+            .build();
+      assertArrayEquals(expected, foo.details());
+
+      // empty additions are fine, too
+      foo = new Foo$Builder(foo)
+            .addAllDetails()
+            .addAllDetails(Collections.<Foo.OtherAnnotation>emptyList())
+            .build();
+      assertArrayEquals(expected, foo.details());
+
+      // primitives
+      TestAnnotation.Inner1 inner = new TestAnnotation$Inner1$Builder(
+            new TestAnnotation$Builder().build().whoah()[0])
+            .addAllBytes((byte) 4, (byte) 5)
+            .addAllBytes(Arrays.asList((byte) 6, (byte) 7))
+            .build();
+      assertArrayEquals(new byte[] { 0, 1, 2, 3, 4, 5, 6, 7 }, inner.bytes());
+
+      // invalid arguments
+      Foo$Builder builder = new Foo$Builder().value("abc");
+      try {
+         builder.addAllDetails(details, 90, 11);
+         fail("Expecting IndexOutOfBoundsException");
+      } catch (IndexOutOfBoundsException expected1) {
+      }
+      try {
+         builder.addAllDetails(details[0], null);
+         fail("Expecting NullPointerException");
+      } catch (NullPointerException expected1) {
+      }
+      try {
+         builder.addAllDetails(Arrays.asList(details[0], null));
+         fail("Expecting NullPointerException");
+      } catch (NullPointerException expected1) {
+      }
+      // failed additions leave the value unchanged
+      assertEquals(1, builder.build().details().length);
+   }
+
+   @SuppressWarnings({ "unchecked", "rawtypes" })
+   @Test public void failedAddAllLeavesRequiredMemberUnset() {
+      TestAnnotation$Inner2$Builder builder =
+            new TestAnnotation$Inner2$Builder().p(Processor.class);
+      try {
+         builder.addAllLists(new Class[] { ArrayList.class, null });
+         fail("Expecting NullPointerException");
+      } catch (NullPointerException expected) {
+      }
+      try {
+         builder.addAllLists(Arrays.<Class<? extends List>>asList(ArrayList.class, null));
+         fail("Expecting NullPointerException");
+      } catch (NullPointerException expected) {
+      }
+      // lists is still unset
+      try {
+         builder.build();
+         fail("Expecting IllegalStateException");
+      } catch (IllegalStateException expected) {
+      }
+      assertArrayEquals(new Class<?>[] { ArrayList.class },
+            builder.addAllLists(new Class[] { ArrayList.class }).build().lists());
+   }
+
+   @Test public void addAllWithMembersNamedLikeParameters() {
+      Range range = new Range$Builder()
+            .addAllLength(new int[] { 1, 2, 3, 4 }, 1, 2)
+            .addAllOffset(new String[] { "a", "b", "c" }, 2, 1)
+            .build();
+      assertArrayEquals(new int[] { 2, 3 }, range.length());
+      assertArrayEquals(new String[] { "c" }, range.offset());
+   }
+
+   @Test public void defaultInstanceIsShared() {
+      TestAnnotation anno1 = new TestAnnotation$Builder().build();
+      TestAnnotation anno2 = new TestAnnotation$Builder().build();
+      assertSame(anno1, anno2);
+
+      // but not once any value is set, even if it's the same as the default
+      TestAnnotation anno3 = new TestAnnotation$Builder().whoah(anno1.whoah()).build();
+      assertNotSame(anno1, anno3);
+      assertEquals(anno1, anno3);
+
+      // nested annotations in default values are also created just once
+      assertSame(new Foo$Builder().value("a").build().details()[0],
+            new Foo$Builder().value("b").build().details()[0]);
+   }
+
+   @Test public void buildIsMemoized() {
+      Foo$Builder builder = new Foo$Builder().value("abc")
+            .addDetails(new Foo$OtherAnnotation$Builder().build());
+      Foo foo1 = builder.build();
+      assertSame(foo1, builder.build());
+
+      // any change means a new instance is built
+      Foo foo2 = builder.flag(true).build();
+      assertNotSame(foo1, foo2);
+      assertSame(foo2, builder.build());
+      Foo foo3 = builder.addDetails(new Foo$OtherAnnotation$Builder().value("xyz").build()).build();
+      assertNotSame(foo2, foo3);
+      assertEquals(2, foo2.details().length);
+      assertEquals(3, foo3.details().length);
+
+      // a builder copied from a built instance returns that instance until changed
+      assertSame(foo3, new Foo$Builder(foo3).build());
+      assertNotSame(foo3, new Foo$Builder(foo3).value("abc").build());
+   }
+
+   @Test public void resetAndClear() {
+      Foo.OtherAnnotation detail = new Foo$OtherAnnotation$Builder().value("xyz").build();
+      Foo$Builder builder = new Foo$Builder().value("abc").flag(true).addDetails(detail);
+      Foo foo1 = builder.build();
+      assertEquals(2, foo1.details().length);
+
+      // reset restores defaults and unsets required fields
+      builder.reset();
+      try {
+         builder.build();
+         fail("Expecting IllegalStateException");
+      } catch (IllegalStateException expected) {
+      }
+      Foo foo2 = builder.value("abc").build();
+      assertEquals(new Foo$Builder().value("abc").build(), foo2);
+
+      // clear also empties arrays
+      for (int i = 0; i < 10; i++) {
+         builder.addDetails(detail);
+      }
+      Foo foo3 = builder.build();
+      assertEquals(11, foo3.details().length);
+      Foo foo4 = builder.clear().value("def").addDetails(detail).addDetails(detail).build();
+      assertEquals("def", foo4.value());
+      assertFalse(foo4.flag());
+      assertEquals(Arrays.asList(detail, detail), Arrays.asList(foo4.details()));
+
+      // an array shared with a built instance is not re-used
+      Foo foo5 = builder.details(detail, detail, detail).build();
+      builder.clear().value("ghi").addDetails(new Foo$OtherAnnotation$Builder().build());
+
+      // previously built instances are unaffected
+      assertEquals(2, foo1.details().length);
+      assertEquals(new Foo$Builder().value("abc").build(), foo2);
+      assertEquals(11, foo3.details().length);
+      assertEquals(Arrays.asList(detail, detail), Arrays.asList(foo4.details()));
+      assertEquals(Arrays.asList(detail, detail, detail), Arrays.asList(foo5.details()));
+
+      // a reset builder builds the shared default instance again
+      TestAnnotation$Builder testBuilder = new TestAnnotation$Builder();
+      TestAnnotation test = testBuilder.build();
+      assertSame(test, testBuilder.whoah().reset().build());
+      assertEquals(0, testBuilder.clear().build().whoah().length);
+   }
+
+   @Test public void clearUnsetsRequiredArrays() {
+      TestAnnotation$Inner2$Builder builder = new TestAnnotation$Inner2$Builder()
+            .p(Processor.class)
+            .lists(ArrayList.class, LinkedList.class);
+      builder.build();
+      builder.clear().p(Processor.class);
+      try {
+         builder.build();
+         fail("Expecting IllegalStateException");
+      } catch (IllegalStateException expected) {
+      }
+      // values with defaults are still usable after clearing
+      assertEquals("foo", builder.lists().build().s());
+   }
+
+   @Test public void clearKeepsRequiredArrayStorage() throws Exception {
+      TestAnnotation$Inner2$Builder builder = new TestAnnotation$Inner2$Builder()
+            .p(Processor.class)
+            .ensureListsCapacity(8)
+            .addLists(ArrayList.class)
+            .addLists(LinkedList.class);
+      Field lists = builder.getClass().getDeclaredField("lists");
+      lists.setAccessible(true);
+      Object storage = lists.get(builder);
+
+      builder.clear().p(Processor.class);
+      try {
+         builder.build();
+         fail("Expecting IllegalStateException");
+      } catch (IllegalStateException expected) {
+      }
+      assertSame(storage, lists.get(builder));
+
+      TestAnnotation.Inner2 inner = builder.addLists(CopyOnWriteArrayList.class).build();
+      assertSame(storage, lists.get(builder));
+      assertEquals(Arrays.<Class<?>>asList(CopyOnWriteArrayList.class),
+            Arrays.<Class<?>>asList(inner.lists()));
+
+      // reset does not keep the storage
+      builder.reset();
+      assertNotSame(storage, lists.get(builder));
+   }
+
+   @Test public void buildCanonical() {
+      Foo foo1 = new Foo$Builder().value("abc").buildCanonical();
+      Foo foo2 = new Foo$Builder().value("abc").buildCanonical();
+      assertSame(foo1, foo2);
+      assertSame(foo1, new Foo$Builder(new Foo$Builder().value("abc").build()).buildCanonical());
+      Foo foo3 = new Foo$Builder().value("def").buildCanonical();
+      assertNotSame(foo1, foo3);
+      assertNotEquals(foo1, foo3);
+      // canonical instances are equal to other instances, too
+      assertEquals(foo1, new Foo$Builder().value("abc").build());
+   }
+
+   @Test public void valuePool() throws Exception {
+      int[] ints = ValuePool.intern(new int[] { 1, 2, 3 });
+      assertSame(ints, ValuePool.intern(new int[] { 1, 2, 3 }));
+      assertNotSame(ints, ValuePool.intern(new int[] { 1, 2 }));
+      String[] strings = ValuePool.intern(new String[] { "a", "b" });
+      assertSame(strings, ValuePool.intern(new String[] { "a", "b" }));
+      // arrays with equal elements but different types are not shared
+      Object[] objects = ValuePool.intern(new Object[] { "a", "b" });
+      assertNotSame(strings, objects);
+      assertEquals(Object[].class, objects.getClass());
+
+      // values are still found after the pool grows
+      List<long[]> longs = new ArrayList<>();
+      for (int i = 0; i < 1000; i++) {
+         longs.add(ValuePool.intern(new long[] { i, -i }));
+      }
+      for (int i = 0; i < 1000; i++) {
+         assertSame(longs.get(i), ValuePool.intern(new long[] { i, -i }));
+      }
+
+      // built annotations with equal array values share them
+      Foo.OtherAnnotation detail = new Foo$OtherAnnotation$Builder().value("x").build();
+      Foo foo1 = new Foo$Builder().value("a").details(detail).build();
+      Foo foo2 = new Foo$Builder().value("b").details(Arrays.asList(detail)).build();
+      Field details = foo1.getClass().getDeclaredField("details");
+      details.setAccessible(true);
+      assertSame(details.get(foo1), details.get(foo2));
+   }
+
+   @Tag
+   @Test public void annotationWithoutMembers() throws Exception {
+      Tag tag = new Tag$Builder().build();
+      assertSame(tag, new Tag$Builder().build());
+      assertSame(tag, new Tag$Builder(tag).build());
+      Tag tagLoaded = BuilderTest.class.getMethod("annotationWithoutMembers")
+            .getAnnotation(Tag.class);
+      assertEquals(tag, tagLoaded);
+      assertEquals(tagLoaded, tag);
+      assertEquals(tagLoaded.hashCode(), tag.hashCode());
+      assertEquals("@com.bluegosling.artificer.builders.Tag()", tag.toString());
+   }
+
    @Test public void setters() {
       Foo foo = new Foo$Builder()
             .value("foo")
@@ -147,6 +439,47 @@ public class BuilderTest {
       assertEquals("baz", foo.details()[0].value());
    }
 
+   @Test public void emptyArraysAreShared() {
+      @SuppressWarnings("unchecked") // generic array creation due to var-args :(
+      TestAnnotation.Inner2 anno =
+            new TestAnnotation$Inner2$Builder().lists().p(Processor.class).build();
+      assertEquals(0, anno.lists().length);
+      // empty arrays can't be modified, so they needn't be cloned
+      assertSame(anno.lists(), anno.lists());
+   }
+
+   @Test public void arrayViews() {
+      Foo foo = new Foo$Builder()
+            .value("value")
+            .addDetails(new Foo$OtherAnnotation$Builder().value("wonk").build())
+            .build();
+      assertEquals(2, Foo$Builder.detailsLength(foo));
+      assertEquals("baz", Foo$Builder.detailsAt(foo, 0).value());
+      assertEquals("wonk", Foo$Builder.detailsAt(foo, 1).value());
+      List<Foo.OtherAnnotation> view = Foo$Builder.detailsView(foo);
+      assertEquals(Arrays.asList(foo.details()), view);
+      try {
+         view.set(0, view.get(1));
+         fail("Expecting UnsupportedOperationException");
+      } catch (UnsupportedOperationException expected) {
+      }
+
+      TestAnnotation.Inner1 inner = new TestAnnotation$Builder().build().whoah()[0];
+      assertEquals(4, TestAnnotation$Inner1$Builder.bytesLength(inner));
+      assertEquals(3, TestAnnotation$Inner1$Builder.bytesAt(inner, 3));
+      assertEquals(Arrays.asList((byte) 0, (byte) 1, (byte) 2, (byte) 3),
+            TestAnnotation$Inner1$Builder.bytesView(inner));
+   }
+
+   @Foo("abc")
+   @Test public void arrayViewsOfOtherImplementations() throws Exception {
+      Foo fooLoaded = BuilderTest.class.getMethod("arrayViewsOfOtherImplementations")
+            .getAnnotation(Foo.class);
+      assertEquals(1, Foo$Builder.detailsLength(fooLoaded));
+      assertEquals("baz", Foo$Builder.detailsAt(fooLoaded, 0).value());
+      assertEquals(Arrays.asList(fooLoaded.details()), Foo$Builder.detailsView(fooLoaded));
+   }
+
    @Test public void appendElements() {
       // set list and then add extra elements
       @SuppressWarnings("unchecked") // generic array creation due to var-args :(
@@ -186,6 +519,35 @@ public class BuilderTest {
       assertEquals("fail", foo.details()[2].value());
    }
    
+   @Test public void appendElementsToEmptyDefaultValue() {
+      Widget widget = new Widget$Builder()
+            .name("w")
+            .addFoos(new Foo$Builder().value("f1").build())
+            .addFoos(new Foo$Builder().value("f2").build())
+            .build();
+      assertEquals(2, widget.foos().length);
+      assertEquals("f1", widget.foos()[0].value());
+      assertEquals("f2", widget.foos()[1].value());
+   }
+
+   @Test public void appendManyElements() {
+      TestAnnotation.Inner1 inner = new TestAnnotation$Builder().build().whoah()[0];
+      TestAnnotation$Inner1$Builder builder = new TestAnnotation$Inner1$Builder(inner);
+      byte[] expected = new byte[1000];
+      System.arraycopy(inner.bytes(), 0, expected, 0, 4);
+      for (int i = 4; i < expected.length; i++) {
+         builder.addBytes((byte) i);
+         expected[i] = (byte) i;
+      }
+      TestAnnotation.Inner1 built = builder.build();
+      assertArrayEquals(expected, built.bytes());
+
+      // changing the builder afterwards does not change what it already built
+      builder.addBytes((byte) 0).bytes(Arrays.asList((byte) 1, (byte) 2));
+      assertArrayEquals(expected, built.bytes());
+      assertArrayEquals(new byte[] { 1, 2 }, builder.build().bytes());
+   }
+
    @Foo("abc")
    @Test public void copyConstructor() throws Exception {
       Foo fooLoaded = BuilderTest.class.getMethod("copyConstructor").getAnnotation(Foo.class);
@@ -201,6 +563,102 @@ public class BuilderTest {
       assertEquals(newFoo.details().length + 1, anotherFoo.details().length);
    }
 
+   @Test public void copyConstructorSharesValues() throws Exception {
+      Foo foo = new Foo$Builder().value("abc")
+            .addDetails(new Foo$OtherAnnotation$Builder().value("wonk").build())
+            .build();
+      Field details = foo.getClass().getDeclaredField("details");
+      details.setAccessible(true);
+
+      // unchanged arrays are shared with the copy
+      Foo copy = new Foo$Builder(foo).flag(true).build();
+      assertSame(details.get(foo), details.get(copy));
+
+      // but changing them doesn't change the original
+      Foo.OtherAnnotation[] originalDetails = foo.details();
+      Foo changed = new Foo$Builder(foo)
+            .addDetails(new Foo$OtherAnnotation$Builder().value("fail").build())
+            .build();
+      assertArrayEquals(originalDetails, foo.details());
+      assertEquals(3, changed.details().length);
+      assertEquals("fail", changed.details()[2].value());
+
+      // a copy of the default instance is still the default instance if not changed
+      TestAnnotation anno = new TestAnnotation$Builder().build();
+      assertSame(anno, new TestAnnotation$Builder(anno).build());
+   }
+
+   @Test public void copyConstructorCopiesArraysOfOtherImplementations() {
+      // a misbehaving implementation, whose accessors return its internal arrays
+      final int[] lengths = { 1, 2, 3 };
+      final String[] offsets = { "a", "b" };
+      Range foreign = new Range() {
+         @Override public Class<? extends Annotation> annotationType() {
+            return Range.class;
+         }
+
+         @Override public int[] length() {
+            return lengths;
+         }
+
+         @Override public String[] offset() {
+            return offsets;
+         }
+      };
+      Range built = new Range$Builder(foreign).build();
+      lengths[0] = 100;
+      offsets[0] = "z";
+      assertArrayEquals(new int[] { 1, 2, 3 }, built.length());
+      assertArrayEquals(new String[] { "a", "b" }, built.offset());
+   }
+
+   @Foo("abc")
+   @Test public void withers() throws Exception {
+      Foo foo = new Foo$Builder().value("abc").build();
+      Foo withFlag = Foo$Builder.withFlag(foo, true);
+      assertEquals(new Foo$Builder(foo).flag(true).build(), withFlag);
+      assertFalse(foo.flag());
+      Field details = foo.getClass().getDeclaredField("details");
+      details.setAccessible(true);
+      assertSame(details.get(foo), details.get(withFlag));
+
+      Foo.OtherAnnotation[] newDetails = { new Foo$OtherAnnotation$Builder().build() };
+      Foo withDetails = Foo$Builder.withDetails(foo, newDetails);
+      assertArrayEquals(newDetails, withDetails.details());
+      // the given array was copied
+      newDetails[0] = new Foo$OtherAnnotation$Builder().value("other").build();
+      assertEquals("snafu", withDetails.details()[0].value());
+      try {
+         Foo$Builder.withValue(foo, null);
+         fail("Expecting NullPointerException");
+      } catch (NullPointerException expected) {
+      }
+
+      // other implementations work, too
+      Foo fooLoaded = BuilderTest.class.getMethod("withers").getAnnotation(Foo.class);
+      assertEquals(withFlag, Foo$Builder.withFlag(fooLoaded, true));
+   }
+
+   @Test public void factory() {
+      Foo.OtherAnnotation[] details = { new Foo$OtherAnnotation$Builder().build() };
+      Foo foo = Foo$Builder.of("abc", true, details);
+      assertEquals(new Foo$Builder().value("abc").flag(true).details(details).build(), foo);
+      // the given array was copied
+      details[0] = new Foo$OtherAnnotation$Builder().value("other").build();
+      assertEquals("snafu", foo.details()[0].value());
+      try {
+         Foo$Builder.of("abc", true, new Foo.OtherAnnotation[] { null });
+         fail("Expecting NullPointerException");
+      } catch (NullPointerException expected) {
+      }
+
+      assertSame(new Tag$Builder().build(), Tag$Builder.of());
+
+      // named differently if the annotation has a member named "of"
+      Scale scale = Scale$Builder.newInstance(2.0, "cm");
+      assertEquals(new Scale$Builder().of(2.0).unit("cm").build(), scale);
+   }
+
    @Foo("abc")
    @TestAnnotation
    @Test public void equalsAndHashCode() throws Exception {
@@ -219,6 +677,142 @@ public class BuilderTest {
       assertEquals(annoBuilt, annoLoaded);
       assertEquals(annoLoaded, annoBuilt);
       assertEquals(annoBuilt.hashCode(), annoLoaded.hashCode());
+
+      // hash codes are cached after the first call, including those of nested annotations
+      assertEquals(fooLoaded.hashCode(), fooBuilt.hashCode());
+      assertEquals(annoLoaded.hashCode(), annoBuilt.hashCode());
+      assertEquals(annoLoaded.whoah()[1].hashCode(), annoBuilt.whoah()[1].hashCode());
+   }
+
+   @Primitives
+   @Test public void primitiveEqualsAndHashCode() throws Exception {
+      // values of all primitive types are compared and hashed the same as by core reflection
+      Primitives built = new Primitives$Builder().build();
+      Primitives loaded = BuilderTest.class.getMethod("primitiveEqualsAndHashCode")
+            .getAnnotation(Primitives.class);
+      assertEquals(built, loaded);
+      assertEquals(loaded, built);
+      assertEquals(loaded.hashCode(), built.hashCode());
+
+      built = new Primitives$Builder().z(false).b(Byte.MAX_VALUE).s(Short.MIN_VALUE).c('\0')
+            .i(42).j(Long.MIN_VALUE).f(-0.0f).d(Double.NaN).build();
+      loaded = BuilderTest.class.getMethod("otherPrimitives").getAnnotation(Primitives.class);
+      assertEquals(built, loaded);
+      assertEquals(loaded, built);
+      assertEquals(loaded.hashCode(), built.hashCode());
+      assertNotEquals(new Primitives$Builder().build(), built);
+   }
+
+   @Primitives(z = false, b = Byte.MAX_VALUE, s = Short.MIN_VALUE, c = '\0', i = 42,
+         j = Long.MIN_VALUE, f = -0.0f, d = Double.NaN)
+   public void otherPrimitives() {
+   }
+
+   @Constants
+   @Test public void membersNamedLikeConstants() throws Exception {
+      Constants built = new Constants$Builder().build();
+      assertEquals("default", built.DEFAULT());
+      assertArrayEquals(new int[] { 1, 2 }, built.fooBar());
+      assertArrayEquals(new int[] { 3 }, built.foo_bar());
+      assertArrayEquals(new String[0], built.bazQux());
+      assertArrayEquals(new String[0], built.baz_qux());
+      Constants loaded = BuilderTest.class.getMethod("membersNamedLikeConstants")
+            .getAnnotation(Constants.class);
+      assertEquals(loaded, built);
+
+      built = new Constants$Builder().DEFAULT("other").addFooBar(5).addFoo_bar(6)
+            .addBazQux("a").addBaz_qux("b").build();
+      assertEquals("other", built.DEFAULT());
+      assertArrayEquals(new int[] { 1, 2, 5 }, built.fooBar());
+      assertArrayEquals(new int[] { 3, 6 }, built.foo_bar());
+      assertArrayEquals(new String[] { "a" }, built.bazQux());
+      assertArrayEquals(new String[] { "b" }, built.baz_qux());
+   }
+
+   @Size
+   @Test public void hashCodeWithMemberNamedH() throws Exception {
+      Size built = new Size$Builder().build();
+      Size loaded = BuilderTest.class.getMethod("hashCodeWithMemberNamedH")
+            .getAnnotation(Size.class);
+      assertEquals(loaded.hashCode(), built.hashCode());
+      // again, now that it's cached
+      assertEquals(loaded.hashCode(), built.hashCode());
+   }
+
+   @Size
+   @Test public void equalsWithMemberNamedH() throws Exception {
+      Size built1 = new Size$Builder().w(3).h(4).build();
+      Size built2 = new Size$Builder().w(3).h(4).build();
+      assertEquals(built1, built2);
+      // also once hash codes are cached
+      assertEquals(built1.hashCode(), built2.hashCode());
+      assertEquals(built1, built2);
+      assertNotEquals(built1, new Size$Builder().w(3).h(5).build());
+
+      Size loaded = BuilderTest.class.getMethod("equalsWithMemberNamedH")
+            .getAnnotation(Size.class);
+      Size built = new Size$Builder().build();
+      assertEquals(built, loaded);
+      assertEquals(loaded, built);
+   }
+
+   @Test public void equalsBetweenBuiltInstances() {
+      Foo foo1 = new Foo$Builder().value("abc").build();
+      Foo foo2 = new Foo$Builder().value("abc").build();
+      assertEquals(foo1, foo2);
+      // cached hash codes don't change the outcome
+      assertEquals(foo1.hashCode(), foo2.hashCode());
+      assertEquals(foo1, foo2);
+      Foo foo3 = new Foo$Builder(foo1).flag(true).build();
+      foo3.hashCode();
+      assertNotEquals(foo1, foo3);
+      assertNotEquals(foo3, foo1);
+
+      // floating point values are compared like Float.equals and Double.equals
+      TestAnnotation.Inner1 inner = new TestAnnotation$Builder().build().whoah()[0];
+      TestAnnotation.Inner1 nan1 = new TestAnnotation$Inner1$Builder(inner).d(Double.NaN).build();
+      TestAnnotation.Inner1 nan2 = new TestAnnotation$Inner1$Builder(inner).d(Double.NaN).build();
+      assertEquals(nan1, nan2);
+      TestAnnotation.Inner1 zero = new TestAnnotation$Inner1$Builder(inner).d(0.0).build();
+      TestAnnotation.Inner1 negZero = new TestAnnotation$Inner1$Builder(inner).d(-0.0).build();
+      assertNotEquals(zero, negZero);
+   }
+
+   @Foo("abc")
+   @Test public void appendTo() throws Exception {
+      Foo foo = new Foo$Builder().value("abc").build();
+      String expected = foo.toString();
+      // the string form is cached
+      assertSame(expected, foo.toString());
+
+      StringBuilder sb = new StringBuilder("foo: ");
+      assertSame(sb, Foo$Builder.appendTo(foo, sb));
+      assertEquals("foo: " + expected, sb.toString());
+      // not yet cached
+      Foo other = new Foo$Builder().value("abc").build();
+      assertEquals(expected, Foo$Builder.appendTo(other, new StringBuilder()).toString());
+
+      StringWriter writer = new StringWriter();
+      Foo$Builder.appendTo(foo, writer);
+      assertEquals(expected, writer.toString());
+
+      // nested annotations and values not yet cached are written directly, too
+      Foo.OtherAnnotation detail = new Foo$OtherAnnotation$Builder().value("xyz").build();
+      Foo nested = new Foo$Builder().value("a'\"b").flag(true).addDetails(detail).build();
+      writer = new StringWriter();
+      Foo$Builder.appendTo(nested, writer);
+      assertEquals(new Foo$Builder(nested).value("a'\"b").build().toString(), writer.toString());
+      assertEquals(writer.toString(),
+            Foo$Builder.appendTo(nested, new StringBuilder()).toString());
+
+      // also works for other implementations
+      Foo loaded = BuilderTest.class.getMethod("appendTo").getAnnotation(Foo.class);
+      assertEquals(loaded.toString(),
+            Foo$Builder.appendTo(loaded, new StringBuilder()).toString());
+
+      assertEquals("@com.bluegosling.artificer.builders.Tag()",
+            Tag$Builder.appendTo(Tag$Builder.of(), new StringBuilder()).toString());
+      assertEquals("@com.bluegosling.artificer.builders.Tag()", Tag$Builder.of().toString());
    }
 
    @Test public void testToString() {
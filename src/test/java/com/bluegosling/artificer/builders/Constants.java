@@ -0,0 +1,18 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * An annotation whose member names could collide with constants in generated code, used to test
+ * builders.
+ */
+@HasBuilder
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Constants {
+  String DEFAULT() default "default";
+  int[] fooBar() default { 1, 2 };
+  int[] foo_bar() default { 3 };
+  String[] bazQux() default {};
+  String[] baz_qux() default {};
+}
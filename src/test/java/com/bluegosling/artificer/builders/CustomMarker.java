@@ -0,0 +1,13 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** A custom marker used to test builders, defined in the same compilation as its uses. */
+@BuilderMarker
+@Target(ElementType.ANNOTATION_TYPE)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface CustomMarker {
+}
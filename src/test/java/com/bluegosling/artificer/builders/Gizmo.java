@@ -0,0 +1,11 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** An annotation used to test builders for annotations with a custom marker. */
+@CustomMarker
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Gizmo {
+  int value();
+}
@@ -0,0 +1,18 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** An annotation with members of every primitive type, used to test equals and hashCode. */
+@HasBuilder
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Primitives {
+  boolean z() default true;
+  byte b() default -1;
+  short s() default -300;
+  char c() default 'é';
+  int i() default Integer.MIN_VALUE;
+  long j() default -1L;
+  float f() default Float.NaN;
+  double d() default -0.0;
+}
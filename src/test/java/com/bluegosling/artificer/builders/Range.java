@@ -0,0 +1,15 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * An annotation whose array members have the same names as parameters of generated methods, used
+ * to test builders.
+ */
+@HasBuilder
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Range {
+  int[] length() default {};
+  String[] offset() default {};
+}
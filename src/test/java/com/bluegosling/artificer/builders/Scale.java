@@ -0,0 +1,12 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** An annotation with a member named "of", used to test builders. */
+@HasBuilder
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Scale {
+  double of();
+  String unit() default "";
+}
@@ -0,0 +1,15 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/**
+ * An annotation whose member names could collide with locals in generated code, used to test
+ * builders.
+ */
+@HasBuilder
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Size {
+  int w() default 1;
+  int h() default 2;
+}
@@ -0,0 +1,10 @@
+package com.bluegosling.artificer.builders;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** An annotation with no members, used to test builders. */
+@HasBuilder
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Tag {
+}
@@ -0,0 +1,15 @@
+package com.bluegosling.artificer.builders;
+
+import com.bluegosling.artificer.bridges.Bridged;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+/** An annotation used to test generating both a builder and a bridge. */
+@HasBuilder
+@Bridged
+@Retention(RetentionPolicy.RUNTIME)
+public @interface Widget {
+  String name();
+  Foo[] foos() default {};
+}
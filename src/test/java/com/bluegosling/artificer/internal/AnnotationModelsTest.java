@@ -0,0 +1,71 @@
+package com.bluegosling.artificer.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.bluegosling.artificer.bridges.CompilerRule;
+import com.squareup.javapoet.ClassName;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+public class AnnotationModelsTest {
+   @Rule public CompilerRule compiler = new CompilerRule.Builder()
+         .addCompilationUnit("test.Shared",
+               "package test;\n"
+               + "public @interface Shared {\n"
+               + "  String value() default \"\";\n"
+               + "}\n")
+         .build();
+
+   @Test public void modelIsCreatedOncePerType() {
+      Elements elements = compiler.processingEnv().getElementUtils();
+      AnnotationModels models = new AnnotationModels(elements);
+      TypeElement shared = elements.getTypeElement("test.Shared");
+      AnnotationModel model = models.get(shared);
+      assertEquals(Arrays.asList("value"), memberNames(model));
+      assertSame(model, models.get(shared));
+      assertSame(model, models.get(elements.getTypeElement("test.Shared")));
+   }
+
+   @Test public void existenceIsLookedUpUntilFound() {
+      List<String> lookups = new ArrayList<>();
+      AnnotationModels models = new AnnotationModels(ArtificerProcessorTest.recordingElements(
+            compiler.processingEnv().getElementUtils(), lookups));
+
+      ClassName shared = ClassName.get("test", "Shared");
+      assertTrue(models.exists(shared));
+      assertTrue(models.exists(shared));
+      assertEquals(Collections.singletonList("test.Shared"), lookups);
+
+      // missing types are looked up every time, since they may be generated later
+      lookups.clear();
+      ClassName builder = ClassName.get("test", "Shared$Builder");
+      assertFalse(models.exists(builder));
+      assertFalse(models.exists(builder));
+      assertEquals(Arrays.asList("test.Shared$Builder", "test.Shared$Builder"), lookups);
+
+      // but not once they've been generated
+      lookups.clear();
+      models.generated(builder);
+      assertTrue(models.exists(builder));
+      assertEquals(Collections.emptyList(), lookups);
+   }
+
+   private static List<String> memberNames(AnnotationModel model) {
+      List<String> names = new ArrayList<>();
+      for (AnnotationModel.Member member : model.members()) {
+         names.add(member.name());
+      }
+      return names;
+   }
+}
@@ -0,0 +1,468 @@
+package com.bluegosling.artificer.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.bluegosling.artificer.bridges.CompilerRule;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.ProcessingEnvironment;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.util.Elements;
+
+public class ArtificerProcessorTest {
+   private static final String THING =
+         "package test;\n"
+         + "@com.bluegosling.artificer.builders.HasBuilder\n"
+         + "public @interface Thing {\n"
+         + "  int value();\n"
+         + "  String[] names() default {};\n"
+         + "}\n";
+
+   /**
+    * A waiting annotation, which refers to a type that is not generated until the second round by
+    * {@link DelayedTypesProcessor}.
+    */
+   private static final String WAITER =
+         "package test;\n"
+         + "@com.bluegosling.artificer.builders.HasBuilder\n"
+         + "public @interface Waiter {\n"
+         + "  Later later();\n"
+         + "}\n";
+
+   /**
+    * Generates an unrelated class, {@code test.Unrelated}, in the first round and an enum,
+    * {@code test.Later}, in the second round.
+    */
+   public static class DelayedTypesProcessor extends AbstractProcessor {
+      private int round;
+
+      @Override
+      public Set<String> getSupportedAnnotationTypes() {
+         return ImmutableSet.of("*");
+      }
+
+      @Override
+      public SourceVersion getSupportedSourceVersion() {
+         return SourceVersion.latestSupported();
+      }
+
+      @Override
+      public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+         if (roundEnv.processingOver()) {
+            return false;
+         }
+         round++;
+         if (round == 1) {
+            write("test.Unrelated", "package test;\nclass Unrelated {\n}\n");
+         } else if (round == 2) {
+            write("test.Later", "package test;\npublic enum Later {\n  A\n}\n");
+         }
+         return false;
+      }
+
+      private void write(String name, String source) {
+         try (Writer writer = processingEnv.getFiler().createSourceFile(name).openWriter()) {
+            writer.write(source);
+         } catch (IOException e) {
+            throw new RuntimeException(e);
+         }
+      }
+   }
+
+   /** A marker recorded by {@link LookupRecordingProcessor} at the start of each round. */
+   private static final String NEW_ROUND = "--";
+
+   /** The names of types looked up by {@link LookupRecordingProcessor}. */
+   static final List<String> lookups = Collections.synchronizedList(new ArrayList<String>());
+
+   /**
+    * Artificer's processor, but with each round and each type it looks up recorded in
+    * {@link #lookups}.
+    */
+   public static class LookupRecordingProcessor extends ArtificerProcessor {
+      @Override
+      public synchronized void init(final ProcessingEnvironment processingEnv) {
+         final Elements elements = recordingElements(processingEnv.getElementUtils(), lookups);
+         super.init((ProcessingEnvironment) Proxy.newProxyInstance(
+               ArtificerProcessorTest.class.getClassLoader(),
+               new Class<?>[] { ProcessingEnvironment.class },
+               new InvocationHandler() {
+                  @Override
+                  public Object invoke(Object proxy, Method method, Object[] args)
+                        throws Throwable {
+                     if (method.getName().equals("getElementUtils")) {
+                        return elements;
+                     }
+                     return invokeOn(processingEnv, method, args);
+                  }
+               }));
+      }
+
+      @Override
+      public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+         lookups.add(NEW_ROUND);
+         return super.process(annotations, roundEnv);
+      }
+   }
+
+   /**
+    * Returns a view of the given element utilities that adds the name of every type it looks up to
+    * the given list.
+    */
+   static Elements recordingElements(final Elements elements, final List<String> lookups) {
+      return (Elements) Proxy.newProxyInstance(
+            ArtificerProcessorTest.class.getClassLoader(), new Class<?>[] { Elements.class },
+            new InvocationHandler() {
+               @Override
+               public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                  if (method.getName().equals("getTypeElement") && args.length == 1) {
+                     lookups.add(args[0].toString());
+                  }
+                  return invokeOn(elements, method, args);
+               }
+            });
+   }
+
+   private static Object invokeOn(Object target, Method method, Object[] args) throws Throwable {
+      try {
+         return method.invoke(target, args);
+      } catch (InvocationTargetException e) {
+         throw e.getCause();
+      }
+   }
+
+   /** Returns a builder for compiling the given sources with Artificer's processor. */
+   private static CompilerRule.Builder artificer(String... options) {
+      return new CompilerRule.Builder()
+            .addProcessor(ArtificerProcessor.class)
+            .addOptions(options);
+   }
+
+   private static CompilerRule.Result succeed(CompilerRule.Builder builder) {
+      CompilerRule.Result result = builder.build().compile();
+      assertTrue(result.diagnostics(), result.succeeded());
+      return result;
+   }
+
+   private static File output(CompilerRule.Result result, String path) {
+      File file = new File(result.outputDirectory(), path);
+      assertTrue(path + " not found; " + result.diagnostics(), file.exists());
+      return file;
+   }
+
+   private static String read(File file) throws IOException {
+      return Files.toString(file, Charsets.UTF_8);
+   }
+
+   /** Returns the contents of all generated sources, keyed by path. */
+   private static Map<String, String> generatedSources(CompilerRule.Result result)
+         throws IOException {
+      Map<String, String> sources = new TreeMap<>();
+      String root = result.outputDirectory().getPath() + File.separator;
+      for (File file : Files.fileTreeTraverser().preOrderTraversal(result.outputDirectory())) {
+         if (file.getName().endsWith(".java")) {
+            sources.put(file.getPath().substring(root.length()), read(file));
+         }
+      }
+      return sources;
+   }
+
+   /**
+    * Adds many annotation types, marked for builders and bridges, with a shared nested
+    * annotation.
+    */
+   private static CompilerRule.Builder addManyAnnotations(CompilerRule.Builder builder) {
+      builder.addCompilationUnit("test.Shared",
+            "package test;\n"
+            + "public @interface Shared {\n"
+            + "  String value() default \"\";\n"
+            + "}\n");
+      for (int i = 0; i < 8; i++) {
+         builder.addCompilationUnit("test.Many" + i,
+               "package test;\n"
+               + "@com.bluegosling.artificer.builders.HasBuilder\n"
+               + "@com.bluegosling.artificer.bridges.Bridged\n"
+               + "public @interface Many" + i + " {\n"
+               + "  int id() default " + i + ";\n"
+               + "  String[] names() default { \"a\", \"b\" };\n"
+               + "  Shared shared() default @Shared;\n"
+               + "  Shared[] more() default {};\n"
+               + "}\n");
+      }
+      return builder;
+   }
+
+   /** Compiles the given marker, as a library, without running any processors (so no index). */
+   private static File compileLibrary(String fullClassName, String content) {
+      CompilerRule.Result lib = new CompilerRule.Builder()
+            .addOptions("-proc:none")
+            .addCompilationUnit(fullClassName, content)
+            .build()
+            .compile();
+      assertTrue(lib.diagnostics(), lib.succeeded());
+      return lib.outputDirectory();
+   }
+
+   /** Compiles the given marker, as a library, with the processor that writes the index. */
+   private static File compileIndexedLibrary(String fullClassName, String content) {
+      CompilerRule.Result lib = new CompilerRule.Builder()
+            .addProcessor(MarkerIndexProcessor.class)
+            .addCompilationUnit(fullClassName, content)
+            .build()
+            .compile();
+      assertTrue(lib.diagnostics(), lib.succeeded());
+      return lib.outputDirectory();
+   }
+
+   private static CompilerRule.Result compileWithLibrary(File lib, String... options) {
+      return succeed(artificer(options)
+            .addClassPathEntry(lib)
+            .addCompilationUnit("test.Thing",
+                  "package test;\n"
+                  + "@lib.LibMarker\n"
+                  + "public @interface Thing {\n"
+                  + "  int value();\n"
+                  + "}\n"));
+   }
+
+   @Test public void markerFromClassPathWithoutIndex() {
+      File lib = compileLibrary("lib.LibMarker",
+            "package lib;\n"
+            + "@com.bluegosling.artificer.builders.BuilderMarker\n"
+            + "public @interface LibMarker {\n"
+            + "}\n");
+
+      // only indexed markers are claimed by default
+      CompilerRule.Result result = compileWithLibrary(lib);
+      assertFalse(new File(result.outputDirectory(), "test/Thing$Builder.java").exists());
+
+      // but all annotations are examined with this option
+      result = compileWithLibrary(lib, "-Aartificer.claimAllAnnotations=true");
+      assertTrue(result.diagnostics(),
+            new File(result.outputDirectory(), "test/Thing$Builder.java").exists());
+   }
+
+   @Test public void markersFromAllIndexesOnClassPath() throws Exception {
+      File lib1 = compileIndexedLibrary("lib1.LibMarker",
+            "package lib1;\n"
+            + "@com.bluegosling.artificer.builders.BuilderMarker\n"
+            + "public @interface LibMarker {\n"
+            + "}\n");
+      File lib2 = compileIndexedLibrary("lib2.LibMarker",
+            "package lib2;\n"
+            + "@com.bluegosling.artificer.builders.BuilderMarker\n"
+            + "public @interface LibMarker {\n"
+            + "}\n");
+      assertEquals("com.bluegosling.artificer.builders.BuilderMarker lib1.LibMarker",
+            read(new File(lib1, AbstractMetaMetaProcessor.MARKER_INDEX)).trim());
+
+      // the markers from both libraries are claimed, not just those in the first index
+      CompilerRule.Result result = succeed(artificer()
+            .addClassPathEntry(lib1)
+            .addClassPathEntry(lib2)
+            .addCompilationUnit("test.Thing1",
+                  "package test;\n"
+                  + "@lib1.LibMarker\n"
+                  + "public @interface Thing1 {\n"
+                  + "  int value();\n"
+                  + "}\n")
+            .addCompilationUnit("test.Thing2",
+                  "package test;\n"
+                  + "@lib2.LibMarker\n"
+                  + "public @interface Thing2 {\n"
+                  + "  int value();\n"
+                  + "}\n"));
+      output(result, "test/Thing1$Builder.java");
+      output(result, "test/Thing2$Builder.java");
+   }
+
+   @Test public void deterministicOutputIsNotRewrittenIfUnchanged() throws Exception {
+      File dir = Files.createTempDir();
+      CompilerRule.Builder builder = artificer("-Aartificer.deterministic=true")
+            .addCompilationUnit("test.Thing", THING)
+            .outputDirectory(dir)
+            // so the compiler can see classes generated by the prior compilation
+            .addClassPathEntry(dir);
+
+      File generated = output(succeed(builder), "test/Thing$Builder.java");
+      String content = read(generated);
+      assertTrue(content, content.startsWith("// artificer-content-hash: "));
+      assertFalse(content, content.contains("date ="));
+      // identical inputs produce identical outputs, even in another directory
+      assertEquals(content, read(output(
+            succeed(artificer("-Aartificer.deterministic=true")
+                  .addCompilationUnit("test.Thing", THING)),
+            "test/Thing$Builder.java")));
+
+      assertTrue(generated.setLastModified(1000));
+      succeed(builder);
+      assertEquals(1000, generated.lastModified());
+      assertEquals(content, read(generated));
+
+      // but a changed annotation is re-written
+      succeed(artificer("-Aartificer.deterministic=true")
+            .addCompilationUnit("test.Thing", THING.replace("int value();", "long value();"))
+            .outputDirectory(dir)
+            .addClassPathEntry(dir));
+      assertFalse(generated.lastModified() == 1000);
+      assertTrue(read(generated).contains("long value"));
+   }
+
+   @Test public void cacheIsUsedUnlessOptionsChange() throws Exception {
+      File cacheDir = Files.createTempDir();
+      File stats = new File(Files.createTempDir(), "stats.json");
+      String cacheOption = "-Aartificer.cacheDir=" + cacheDir;
+      String statsOption = "-Aartificer.stats=" + stats;
+      String thingBuilder = "\"generatedClass\": \"test.Thing$Builder\"";
+
+      String content = read(output(
+            succeed(artificer(cacheOption, statsOption, "-Aartificer.deterministic=true")
+                  .addCompilationUnit("test.Thing", THING)),
+            "test/Thing$Builder.java"));
+      assertTrue(read(stats), read(stats).contains(thingBuilder + ", \"cached\": false"));
+
+      // re-compiling hits the cache, even with a different thread count
+      assertEquals(content, read(output(
+            succeed(artificer(cacheOption, statsOption, "-Aartificer.deterministic=true",
+                        "-Aartificer.parallelism=1")
+                  .addCompilationUnit("test.Thing", THING)),
+            "test/Thing$Builder.java")));
+      assertTrue(read(stats), read(stats).contains(thingBuilder + ", \"cached\": true"));
+
+      // but options that affect generated code do not
+      String other = read(output(
+            succeed(artificer(cacheOption, statsOption, "-Aartificer.deterministic=true",
+                        "-Aartificer.arrayViews=true")
+                  .addCompilationUnit("test.Thing", THING)),
+            "test/Thing$Builder.java"));
+      assertTrue(read(stats), read(stats).contains(thingBuilder + ", \"cached\": false"));
+      assertFalse(content.equals(other));
+
+      // and neither does a change to the annotation's structure
+      succeed(artificer(cacheOption, statsOption, "-Aartificer.deterministic=true")
+            .addCompilationUnit("test.Thing", THING.replace("int value();", "long value();")));
+      assertTrue(read(stats), read(stats).contains(thingBuilder + ", \"cached\": false"));
+   }
+
+   @Test public void parallelOutputMatchesSerialOutput() throws Exception {
+      Map<String, String> serial = generatedSources(succeed(addManyAnnotations(
+            artificer("-Aartificer.deterministic=true", "-Aartificer.parallelism=1"))));
+      Map<String, String> parallel = generatedSources(succeed(addManyAnnotations(
+            artificer("-Aartificer.deterministic=true", "-Aartificer.parallelism=4"))));
+      // a builder and a bridge for each annotation, including the nested one
+      assertEquals(serial.keySet().toString(), 18, serial.size());
+      assertEquals(serial, parallel);
+   }
+
+   @Test public void statsReport() throws Exception {
+      File stats = new File(Files.createTempDir(), "stats.json");
+      // the builder for Skipper refers to a builder for the skipped Retention, so compilation fails
+      // (but only after processing is over)
+      CompilerRule.Result result = artificer("-Aartificer.stats=" + stats)
+            .addProcessor(DelayedTypesProcessor.class)
+            .addCompilationUnit("test.Thing", THING)
+            .addCompilationUnit("test.Skipper",
+                  "package test;\n"
+                  + "import java.lang.annotation.Retention;\n"
+                  + "import java.lang.annotation.RetentionPolicy;\n"
+                  + "@com.bluegosling.artificer.builders.HasBuilder\n"
+                  + "public @interface Skipper {\n"
+                  + "  Retention retention() default @Retention(RetentionPolicy.RUNTIME);\n"
+                  + "}\n")
+            .addCompilationUnit("test.Waiter", WAITER)
+            .build()
+            .compile();
+      assertFalse(result.diagnostics(), result.succeeded());
+      String report = read(stats);
+
+      assertTrue(report, report.startsWith(
+            "{\n  \"processor\": \"" + ArtificerProcessor.class.getName() + "\",\n"));
+      assertTrue(report, Pattern.compile("\"totalMillis\": [0-9]+\\.[0-9]{3},").matcher(report)
+            .find());
+      // Thing and Skipper are processed in the first round. Waiter is deferred until Later is
+      // generated, and the nested Retention is skipped since it is in a "java" package.
+      assertTrue(report, Pattern.compile("\\{\"round\": 1, \"wallMillis\": [0-9.]+, "
+            + "\"queued\": 2, \"deferred\": 1, \"skipped\": 1, \"filesWritten\": 2, "
+            + "\"bytesWritten\": [1-9][0-9]*\\}").matcher(report).find());
+      assertTrue(report, Pattern.compile("\\{\"round\": 2, \"wallMillis\": [0-9.]+, "
+            + "\"queued\": 0, \"deferred\": 0, \"skipped\": 0, \"filesWritten\": 0, "
+            + "\"bytesWritten\": 0\\}").matcher(report).find());
+      assertTrue(report, Pattern.compile("\\{\"round\": 3, \"wallMillis\": [0-9.]+, "
+            + "\"queued\": 1, \"deferred\": 0, \"skipped\": 0, \"filesWritten\": 1, "
+            + "\"bytesWritten\": [1-9][0-9]*\\}").matcher(report).find());
+
+      assertTrue(report, report.contains("{\"annotation\": \"test.Waiter\", \"round\": 3, "));
+      Matcher thing = Pattern.compile("\\{\"annotation\": \"test.Thing\", \"round\": 1, "
+            + "\"analysisMillis\": [0-9.]+, \"outputs\": \\[\n"
+            + "      \\{\"generatedClass\": \"test.Thing\\$Builder\", \"cached\": false, "
+            + "\"generateMillis\": [0-9.]+, \"writeMillis\": [0-9.]+, "
+            + "\"bytesWritten\": ([0-9]+)\\}\n    \\]\\}").matcher(report);
+      assertTrue(report, thing.find());
+      assertEquals(output(result, "test/Thing$Builder.java").length(),
+            Long.parseLong(thing.group(1)));
+   }
+
+   @Test public void deferredTypeIsOnlyRetriedWhenTypeItWaitsOnAppears() throws Exception {
+      lookups.clear();
+      CompilerRule.Result result = succeed(new CompilerRule.Builder()
+            .addProcessor(LookupRecordingProcessor.class)
+            .addProcessor(DelayedTypesProcessor.class)
+            .addCompilationUnit("test.Waiter", WAITER));
+      output(result, "test/Waiter$Builder.java");
+
+      // Waiter is deferred in the first round. The second round only has an unrelated type, so it
+      // isn't retried until the third round, which has the enum it waits on.
+      List<String> rounds = new ArrayList<>();
+      int round = 0;
+      for (String lookup : lookups) {
+         if (lookup.equals(NEW_ROUND)) {
+            round++;
+         } else if (lookup.equals("test.Waiter")) {
+            rounds.add("round " + round);
+         }
+      }
+      assertEquals(Collections.singletonList("round 3"), rounds);
+   }
+
+   @Test public void nestedAnnotationIsAnalyzedOnce() throws Exception {
+      File stats = new File(Files.createTempDir(), "stats.json");
+      succeed(addManyAnnotations(artificer("-Aartificer.stats=" + stats)));
+      String report = read(stats);
+      // Shared is nested in all eight annotations, but its model is only created once, and used
+      // for both its builder and its bridge
+      Matcher shared = Pattern.compile("\\{\"annotation\": \"test.Shared\", "
+            + "\"round\": 1, \"analysisMillis\": [0-9.]+, \"outputs\": \\[\n"
+            + "(      \\{\"generatedClass\": [^\n]*\n){2}"
+            + "    \\]\\}").matcher(report);
+      assertTrue(report, shared.find());
+      assertTrue(report, shared.group().contains("\"test.Shared$Builder\""));
+      assertTrue(report, shared.group().contains("\"test.Shared$Bridge\""));
+      assertFalse(report, shared.find());
+      assertEquals(report, report.indexOf("\"test.Shared\""),
+            report.lastIndexOf("\"test.Shared\""));
+   }
+}